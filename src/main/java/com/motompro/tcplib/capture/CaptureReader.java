@@ -0,0 +1,78 @@
+package com.motompro.tcplib.capture;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class reads the events of a file written by a {@link TrafficCapture}, in recording order
+ */
+public class CaptureReader implements Closeable {
+
+    private final DataInputStream input;
+    private final long startTime;
+    private boolean ended = false;
+
+    /**
+     * @param file The {@link Path} of the capture file
+     * @throws IOException If the file cannot be read or is not a capture file
+     */
+    public CaptureReader(Path file) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        if(input.readInt() != TrafficCapture.MAGIC) {
+            input.close();
+            throw new IOException("Not a traffic capture file: " + file);
+        }
+        short version = input.readShort();
+        if(version != TrafficCapture.VERSION) {
+            input.close();
+            throw new IOException("Unsupported traffic capture version: " + version);
+        }
+        this.startTime = input.readLong();
+    }
+
+    /**
+     * Get the time the capture started
+     * @return A long representing the time in millisecond since epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Read the next event
+     * @return The next {@link CaptureRecord}, <code>null</code> if there is no more event
+     * @throws IOException
+     */
+    public CaptureRecord next() throws IOException {
+        if(ended)
+            return null;
+        int code = input.read();
+        // The end of the file or the end marker of a capture which was not closed properly
+        if(code <= 0) {
+            ended = true;
+            return null;
+        }
+        CaptureRecord.Type type = CaptureRecord.Type.fromCode((byte) code);
+        if(type == null)
+            throw new IOException("Unknown record type: " + code);
+        long timestamp = input.readLong();
+        int clientId = input.readInt();
+        int length = input.readInt();
+        String message = null;
+        if(type == CaptureRecord.Type.INBOUND || type == CaptureRecord.Type.OUTBOUND) {
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            message = new String(bytes, StandardCharsets.UTF_8);
+        } else {
+            input.skipBytes(length);
+        }
+        return new CaptureRecord(type, timestamp, clientId, message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
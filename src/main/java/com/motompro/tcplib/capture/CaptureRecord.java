@@ -0,0 +1,94 @@
+package com.motompro.tcplib.capture;
+
+/**
+ * This class represents an event read from a traffic capture
+ */
+public class CaptureRecord {
+
+    /**
+     * The kind of captured event. The code is the value written in the capture file.
+     */
+    public enum Type {
+        CONNECT(1),
+        DISCONNECT(2),
+        INBOUND(3),
+        OUTBOUND(4);
+
+        private final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * Get the value written in the capture file for this type
+         * @return A byte representing the type
+         */
+        public byte getCode() {
+            return code;
+        }
+
+        /**
+         * Get the type associated with a value of the capture file
+         * @param code The byte read from the file
+         * @return The {@link Type}, <code>null</code> if the value is unknown
+         */
+        public static Type fromCode(byte code) {
+            for(Type type : values()) {
+                if(type.code == code)
+                    return type;
+            }
+            return null;
+        }
+    }
+
+    private final Type type;
+    private final long timestamp;
+    private final int clientId;
+    private final String message;
+
+    /**
+     * @param type The {@link Type} of the event
+     * @param timestamp The time (in nanosecond) elapsed between the start of the capture and the event
+     * @param clientId The connection id of the client, see {@link com.motompro.tcplib.server.ServerSideClient#getId()}
+     * @param message The {@link String} message, <code>null</code> for connections and disconnections
+     */
+    public CaptureRecord(Type type, long timestamp, int clientId, String message) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.clientId = clientId;
+        this.message = message;
+    }
+
+    /**
+     * Get the kind of this event
+     * @return The {@link Type} of this {@link CaptureRecord}
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the time (in nanosecond) elapsed between the start of the capture and this event
+     * @return A long representing the time
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the connection id of the client concerned by this event
+     * @return An integer representing the id
+     */
+    public int getClientId() {
+        return clientId;
+    }
+
+    /**
+     * Get the captured message
+     * @return The {@link String} message, <code>null</code> for connections and disconnections
+     */
+    public String getMessage() {
+        return message;
+    }
+}
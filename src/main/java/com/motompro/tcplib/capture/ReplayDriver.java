@@ -0,0 +1,172 @@
+package com.motompro.tcplib.capture;
+
+import com.motompro.tcplib.client.Client;
+import com.motompro.tcplib.client.ServerListener;
+import com.motompro.tcplib.server.Server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class plays a traffic capture back against a server.<br>
+ * Every captured client is replaced by a {@link Client} connection, which connects, sends its messages and
+ * disconnects at the captured times, divided by the replay speed.
+ */
+public class ReplayDriver {
+
+    public static final long DEFAULT_COMPLETION_DELAY = 1000;
+
+    private final Path file;
+    private final String ip;
+    private final int port;
+    private double speed = 1;
+    private long completionDelay = DEFAULT_COMPLETION_DELAY;
+
+    /**
+     * @param file The {@link Path} of the capture file
+     * @param ip The IP address of the server the capture will be played against
+     * @param port The port of the server the capture will be played against
+     */
+    public ReplayDriver(Path file, String ip, int port) {
+        this.file = file;
+        this.ip = ip;
+        this.port = port;
+    }
+
+    /**
+     * Set the replay speed. A speed of <code>2</code> plays the capture twice as fast as it was recorded.<br>
+     * This parameter is set at <code>1</code> by default, <code>0</code> plays the capture as fast as possible
+     * @param speed The speed factor
+     */
+    public void setSpeed(double speed) {
+        if(speed < 0)
+            throw new IllegalArgumentException("speed must not be negative");
+        this.speed = speed;
+    }
+
+    /**
+     * Get the replay speed
+     * @return A double representing the speed factor, <code>0</code> if the capture is played as fast as possible
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Set how long (in millisecond) the driver waits for the server's answers after the last captured event,
+     * before closing the remaining connections.<br>
+     * This parameter is set at {@link #DEFAULT_COMPLETION_DELAY} by default
+     * @param completionDelay The delay in millisecond
+     */
+    public void setCompletionDelay(long completionDelay) {
+        this.completionDelay = completionDelay;
+    }
+
+    /**
+     * Play the capture back. This method blocks until the replay is over.
+     * @return The {@link ReplayResult} of the replay
+     * @throws IOException If the capture cannot be read or a client cannot connect
+     */
+    public ReplayResult run() throws IOException {
+        Map<Integer, Client> clients = new HashMap<>();
+        AtomicLong receivedMessages = new AtomicLong();
+        int connections = 0;
+        long sentMessages = 0;
+        long expectedMessages = 0;
+        long startNanos = System.nanoTime();
+        long endNanos;
+        try(CaptureReader reader = new CaptureReader(file)) {
+            CaptureRecord record;
+            while((record = reader.next()) != null) {
+                if(record.getType() == CaptureRecord.Type.OUTBOUND) {
+                    // Internal messages, such as room state updates, are not delivered to the listeners
+                    if(!record.getMessage().startsWith(Server.INTERNAL_MESSAGE_PREFIX + " "))
+                        expectedMessages++;
+                    continue;
+                }
+                waitUntil(startNanos, record.getTimestamp());
+                Client client = clients.get(record.getClientId());
+                switch(record.getType()) {
+                    case CONNECT:
+                        if(client != null)
+                            client.close();
+                        clients.put(record.getClientId(), connect(receivedMessages));
+                        connections++;
+                        break;
+                    case DISCONNECT:
+                        if(client != null) {
+                            client.close();
+                            clients.remove(record.getClientId());
+                        }
+                        break;
+                    case INBOUND:
+                        // The client may have connected before the capture started
+                        if(client == null) {
+                            client = connect(receivedMessages);
+                            clients.put(record.getClientId(), client);
+                            connections++;
+                        }
+                        client.sendMessage(record.getMessage());
+                        sentMessages++;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            // The completion delay is not part of the replay duration
+            endNanos = System.nanoTime();
+            // Let the server answer the last messages
+            try {
+                Thread.sleep(completionDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            for(Client client : clients.values()) {
+                try {
+                    client.close();
+                } catch (IOException ignored) {}
+            }
+        }
+        long elapsedTime = (endNanos - startNanos) / 1000000;
+        return new ReplayResult(connections, sentMessages, expectedMessages, receivedMessages.get(), elapsedTime);
+    }
+
+    /**
+     * Open a connection counting the messages received from the server
+     * @param receivedMessages The {@link AtomicLong} counter of received messages
+     * @return The connected {@link Client}
+     * @throws IOException
+     */
+    private Client connect(AtomicLong receivedMessages) throws IOException {
+        Client client = new Client(ip, port);
+        client.addServerListener(new ServerListener() {
+            @Override
+            public void onServerDisconnect() {}
+
+            @Override
+            public void onServerMessage(String message) {
+                receivedMessages.incrementAndGet();
+            }
+        });
+        return client;
+    }
+
+    /**
+     * Wait until the replay time of an event
+     * @param startNanos The time (in nanosecond) the replay started
+     * @param timestamp The time (in nanosecond) elapsed between the start of the capture and the event
+     */
+    private void waitUntil(long startNanos, long timestamp) {
+        if(speed == 0)
+            return;
+        long target = startNanos + (long) (timestamp / speed);
+        long remaining;
+        while((remaining = target - System.nanoTime()) > 0)
+            LockSupport.parkNanos(remaining);
+    }
+}
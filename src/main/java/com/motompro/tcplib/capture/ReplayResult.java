@@ -0,0 +1,83 @@
+package com.motompro.tcplib.capture;
+
+/**
+ * This class represents the outcome of a replay run by a {@link ReplayDriver}
+ */
+public class ReplayResult {
+
+    private final int connections;
+    private final long sentMessages;
+    private final long expectedMessages;
+    private final long receivedMessages;
+    private final long elapsedTime;
+
+    /**
+     * @param connections The amount of client connections opened
+     * @param sentMessages The amount of messages sent to the server
+     * @param expectedMessages The amount of messages the server sent to the clients during the capture, internal messages excluded
+     * @param receivedMessages The amount of messages the clients received during the replay
+     * @param elapsedTime The duration (in millisecond) of the replay, without the completion delay
+     */
+    public ReplayResult(int connections, long sentMessages, long expectedMessages, long receivedMessages, long elapsedTime) {
+        this.connections = connections;
+        this.sentMessages = sentMessages;
+        this.expectedMessages = expectedMessages;
+        this.receivedMessages = receivedMessages;
+        this.elapsedTime = elapsedTime;
+    }
+
+    /**
+     * Get the amount of client connections opened
+     * @return An integer representing the amount
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Get the amount of messages sent to the server
+     * @return A long representing the amount
+     */
+    public long getSentMessages() {
+        return sentMessages;
+    }
+
+    /**
+     * Get the amount of messages the server sent to the clients during the capture, internal messages such as
+     * room state updates excluded
+     * @return A long representing the amount
+     */
+    public long getExpectedMessages() {
+        return expectedMessages;
+    }
+
+    /**
+     * Get the amount of messages the clients received during the replay
+     * @return A long representing the amount
+     */
+    public long getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    /**
+     * Get the duration of the replay, from the start to the last captured event
+     * @return A long representing the duration in millisecond
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Get the amount of messages sent to the server per second during the replay
+     * @return A double representing the throughput
+     */
+    public double getThroughput() {
+        return elapsedTime > 0 ? sentMessages * 1000.0 / elapsedTime : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayResult{connections=" + connections + ", sent=" + sentMessages + ", expected=" + expectedMessages
+                + ", received=" + receivedMessages + ", elapsed=" + elapsedTime + "ms}";
+    }
+}
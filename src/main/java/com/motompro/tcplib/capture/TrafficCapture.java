@@ -0,0 +1,240 @@
+package com.motompro.tcplib.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class writes the traffic of a server to a compact append-only binary file.<br>
+ * The file is written through memory-mapped segments, so recording an event is a copy into memory and the
+ * operating system writes the pages to disk in background. Recording threads only share an atomic reservation of
+ * the space of their records, they do not lock each other.
+ * To get it working you must register it in a {@link com.motompro.tcplib.server.Server} instance using the
+ * {@link com.motompro.tcplib.server.Server#setTrafficCapture(TrafficCapture)} method.
+ * <p>
+ * File layout: a header made of {@link #MAGIC} (int), {@link #VERSION} (short) and the capture start time in
+ * millisecond since epoch (long), followed by records made of the type (byte), the time in nanosecond since the
+ * start (long), the client id (int), the message length (int) and the UTF-8 message. A type of <code>0</code> marks
+ * the end of the records.
+ */
+public class TrafficCapture {
+
+    public static final int MAGIC = 0x54435043;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 2 + 8;
+    public static final int RECORD_HEADER_SIZE = 1 + 8 + 4 + 4;
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final long startNanos;
+    private volatile Segment segment;
+    private final AtomicLong recordCount = new AtomicLong();
+    // Threads currently writing a record, the file is only closed once they are done
+    private final AtomicInteger writers = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * A region of the file mapped in memory. Records reserve their space by moving the cursor forward, so threads
+     * writing to the same segment do not wait for each other.
+     */
+    private static class Segment {
+
+        // Cursor value of a segment which does not accept records anymore
+        private static final int SEALED = Integer.MAX_VALUE;
+
+        private final MappedByteBuffer buffer;
+        // Position of the segment in the file
+        private final long position;
+        private final AtomicInteger cursor;
+
+        private Segment(MappedByteBuffer buffer, long position, int cursor) {
+            this.buffer = buffer;
+            this.position = position;
+            this.cursor = new AtomicInteger(cursor);
+        }
+
+        /**
+         * Reserve the space of a record, keeping a byte for the end marker
+         * @param size The size (in byte) of the record
+         * @return The offset of the reserved space in the segment, <code>-1</code> if the segment is full or sealed
+         */
+        private int reserve(int size) {
+            while(true) {
+                int offset = cursor.get();
+                if(offset == SEALED || offset > buffer.capacity() - size - 1)
+                    return -1;
+                if(cursor.compareAndSet(offset, offset + size))
+                    return offset;
+            }
+        }
+
+        /**
+         * Stop accepting records
+         * @return The size (in byte) of the records written to the segment
+         */
+        private int seal() {
+            return cursor.getAndSet(SEALED);
+        }
+    }
+
+    /**
+     * Create an instance of {@link TrafficCapture} writing to a file. The file is replaced if it exists.
+     * @param file The {@link Path} of the capture file
+     * @throws IOException
+     */
+    public TrafficCapture(Path file) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create an instance of {@link TrafficCapture} writing to a file. The file is replaced if it exists.
+     * @param file The {@link Path} of the capture file
+     * @param segmentSize The size (in byte) of the file regions mapped in memory at once
+     * @throws IOException
+     */
+    public TrafficCapture(Path file, int segmentSize) throws IOException {
+        if(segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("segmentSize is too small");
+        this.segmentSize = segmentSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.startNanos = System.nanoTime();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putLong(System.currentTimeMillis());
+        this.segment = new Segment(buffer, 0, HEADER_SIZE);
+    }
+
+    /**
+     * Record the connection of a client
+     * @param clientId The connection id of the client
+     */
+    public void recordConnect(int clientId) {
+        record(CaptureRecord.Type.CONNECT, clientId, null);
+    }
+
+    /**
+     * Record the disconnection of a client
+     * @param clientId The connection id of the client
+     */
+    public void recordDisconnect(int clientId) {
+        record(CaptureRecord.Type.DISCONNECT, clientId, null);
+    }
+
+    /**
+     * Record a message received from a client
+     * @param clientId The connection id of the client
+     * @param message The {@link String} message
+     */
+    public void recordInbound(int clientId, String message) {
+        record(CaptureRecord.Type.INBOUND, clientId, message);
+    }
+
+    /**
+     * Record a message sent to a client
+     * @param clientId The connection id of the client
+     * @param message The {@link String} message
+     */
+    public void recordOutbound(int clientId, String message) {
+        record(CaptureRecord.Type.OUTBOUND, clientId, message);
+    }
+
+    /**
+     * Get the amount of recorded events
+     * @return A long representing the amount
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     * Get whether this capture is closed or not. Events recorded after closing are ignored.
+     * @return A {@link Boolean}, <code>true</code> if closed, <code>false</code> if opened
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Write the remaining data to the disk and close the file
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if(closed)
+            return;
+        closed = true;
+        Segment lastSegment = segment;
+        long size = lastSegment.position + lastSegment.seal();
+        // Let the threads which already reserved their space finish writing
+        while(writers.get() > 0)
+            Thread.yield();
+        lastSegment.buffer.force();
+        // Remove the unused end of the last segment
+        channel.truncate(size);
+        channel.close();
+    }
+
+    /**
+     * Append an event to the file. The message is encoded before reserving space, and only the reservation is
+     * shared between the recording threads.
+     * @param type The {@link CaptureRecord.Type} of the event
+     * @param clientId The connection id of the client
+     * @param message The {@link String} message, <code>null</code> if none
+     */
+    private void record(CaptureRecord.Type type, int clientId, String message) {
+        if(closed)
+            return;
+        long timestamp = System.nanoTime() - startNanos;
+        byte[] bytes = message != null ? message.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int recordSize = RECORD_HEADER_SIZE + bytes.length;
+        writers.incrementAndGet();
+        try {
+            Segment currentSegment;
+            int offset;
+            while((offset = (currentSegment = segment).reserve(recordSize)) < 0) {
+                if(!nextSegment(currentSegment, recordSize + 1))
+                    return;
+            }
+            ByteBuffer target = currentSegment.buffer.duplicate();
+            target.position(offset);
+            target.put(type.getCode());
+            target.putLong(timestamp);
+            target.putInt(clientId);
+            target.putInt(bytes.length);
+            target.put(bytes);
+            recordCount.incrementAndGet();
+        } finally {
+            writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Seal a full segment and map the region of the file following its records
+     * @param fullSegment The {@link Segment} which is full
+     * @param minimumSize The size (in byte) the new region must at least have
+     * @return A boolean, <code>true</code> if a segment can be used, <code>false</code> if the capture is closed
+     */
+    private synchronized boolean nextSegment(Segment fullSegment, int minimumSize) {
+        if(closed)
+            return false;
+        // Another thread already moved to the next segment
+        if(segment != fullSegment)
+            return true;
+        long position = fullSegment.position + fullSegment.seal();
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(segmentSize, minimumSize));
+            segment = new Segment(buffer, position, 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+}
@@ -1,22 +1,63 @@
 package com.motompro.tcplib.client;
 
+import com.motompro.tcplib.queue.OutboundQueue;
+import com.motompro.tcplib.queue.Priority;
 import com.motompro.tcplib.server.Server;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class represents a TCP client.<br>
- * It handles communication with a distant server.
+ * It handles communication with a distant server. Messages can be sent from any thread.
  */
 public class Client {
 
-    private final Socket socket;
-    private final BufferedReader input;
-    private final PrintWriter output;
+    public static final long DEFAULT_RECONNECT_INITIAL_DELAY = 500;
+    public static final long DEFAULT_RECONNECT_MAX_DELAY = 30000;
+    public static final long CLOSE_TIMEOUT = 1000;
+
+    private final String ip;
+    private final int port;
+    private volatile Socket socket;
+    private volatile BufferedReader input;
+    private volatile BufferedWriter output;
+    private final OutboundQueue outbound = new OutboundQueue(new OutboundQueue.Sink() {
+        @Override
+        public void write(String message, Priority priority) throws IOException {
+            BufferedWriter currentOutput = output;
+            currentOutput.write(message);
+            currentOutput.newLine();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    });
     private final List<ServerListener> serverListeners = new CopyOnWriteArrayList<>();
+    private boolean autoReconnect = false;
+    private long reconnectInitialDelay = DEFAULT_RECONNECT_INITIAL_DELAY;
+    private long reconnectMaxDelay = DEFAULT_RECONNECT_MAX_DELAY;
+    private int maxReconnectAttempts = 0;
+    private volatile boolean closing = false;
+    private volatile boolean reconnecting = false;
+    // Session given by the server, used to resume the connection after a reconnect
+    private String sessionToken;
+    private long receivedMessages = 0;
+    private boolean resuming = false;
+    private final RoomStateMirror roomState = new RoomStateMirror();
 
     /**
      * @param ip The IP address the client will connect to
@@ -24,9 +65,9 @@ public class Client {
      * @throws IOException
      */
     public Client(String ip, int port) throws IOException {
-        this.socket = new Socket(ip, port);
-        this.input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.output = new PrintWriter(socket.getOutputStream());
+        this.ip = ip;
+        this.port = port;
+        connect();
         startServerInputThread();
     }
 
@@ -59,10 +100,12 @@ public class Client {
      * @throws IOException
      */
     public void close() throws IOException {
-        output.write(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.DISCONNECT_MESSAGE);
-        output.flush();
-        input.close();
-        output.close();
+        closing = true;
+        // The disconnect message is written after the messages being written, the queued ones are dropped
+        outbound.close(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.DISCONNECT_MESSAGE);
+        if(!reconnecting)
+            outbound.awaitEmpty(CLOSE_TIMEOUT);
+        // Closing the socket stops the input thread, which closes the IO streams
         socket.close();
     }
 
@@ -77,11 +120,166 @@ public class Client {
     /**
      * Send a {@link String} message to the server
      * @param message
-     * @throws IOException
+     * @throws IOException If the connection is lost and the client is reconnecting, or if the connection is closed
      */
     public void sendMessage(String message) throws IOException {
-        output.println(message);
-        output.flush();
+        checkConnection();
+        outbound.send(message, Priority.NORMAL);
+    }
+
+    /**
+     * Send multiple {@link String} messages to the server. The messages are written with a single flush.
+     * @param messages The {@link Collection} of {@link String} messages
+     * @throws IOException If the connection is lost and the client is reconnecting, or if the connection is closed
+     */
+    public void sendMessages(Collection<String> messages) throws IOException {
+        checkConnection();
+        outbound.sendAll(messages, Priority.NORMAL);
+    }
+
+    /**
+     * Send a message to the server without waiting for it to be written.<br>
+     * Messages sent while the client is reconnecting are queued and written once the connection is back.
+     * @param message The {@link String} message
+     * @param priority The {@link Priority} of the message, {@link Priority#CONTROL} is reserved to the lib
+     * @return A {@link CompletableFuture} completed when the message is written, or exceptionally with the {@link IOException} which occurred
+     */
+    public CompletableFuture<Void> send(String message, Priority priority) {
+        if(priority == Priority.CONTROL)
+            throw new IllegalArgumentException("The CONTROL priority is reserved to internal messages");
+        return outbound.send(message, priority);
+    }
+
+    /**
+     * Get the state of the room the client is in, kept up to date by the server
+     * @return The {@link RoomStateMirror} of this client
+     */
+    public RoomStateMirror getRoomState() {
+        return roomState;
+    }
+
+    /**
+     * Set if the client should reconnect to the server when the connection is lost.<br>
+     * If the server allows sessions, the client resumes its previous session and receives the messages it missed.
+     * This parameter is set at <code>false</code> by default
+     * @param autoReconnect A {@link Boolean}, <code>true</code> if it reconnects, <code>false</code> if not
+     */
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+    }
+
+    /**
+     * Get if the client reconnects to the server when the connection is lost.<br>
+     * This parameter is set at <code>false</code> by default
+     * @return A {@link Boolean}, <code>true</code> if it reconnects, <code>false</code> if not
+     */
+    public boolean getAutoReconnect() {
+        return autoReconnect;
+    }
+
+    /**
+     * Set the delays (in millisecond) between reconnect attempts. The delay starts at the initial delay and doubles
+     * after each failed attempt, without exceeding the maximum delay.
+     * @param initialDelay The delay before the first attempt
+     * @param maxDelay The maximum delay between two attempts
+     */
+    public void setReconnectDelay(long initialDelay, long maxDelay) {
+        if(initialDelay < 1 || maxDelay < initialDelay)
+            throw new IllegalArgumentException("Invalid reconnect delays");
+        this.reconnectInitialDelay = initialDelay;
+        this.reconnectMaxDelay = maxDelay;
+    }
+
+    /**
+     * Set the maximum amount of reconnect attempts before the client gives up.<br>
+     * This parameter is set at <code>0</code> by default, which means there is no limit
+     * @param maxReconnectAttempts The amount of attempts, <code>0</code> for no limit
+     */
+    public void setMaxReconnectAttempts(int maxReconnectAttempts) {
+        this.maxReconnectAttempts = maxReconnectAttempts;
+    }
+
+    /**
+     * Get whether the connection is lost and the client is trying to reconnect or not
+     * @return A {@link Boolean}, <code>true</code> if reconnecting, <code>false</code> otherwise
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    /**
+     * Throw an exception if messages cannot be sent
+     * @throws IOException If the connection is lost and the client is reconnecting, or if the connection is closed
+     */
+    private void checkConnection() throws IOException {
+        if(reconnecting)
+            throw new IOException("Connection lost, reconnecting to the server");
+        if(outbound.isClosed())
+            throw new IOException("Connection closed");
+    }
+
+    /**
+     * Open the connection to the server and ask for a new session, or to resume the current one
+     * @throws IOException
+     */
+    private void connect() throws IOException {
+        Socket newSocket = new Socket(ip, port);
+        if(input != null) {
+            try {
+                input.close();
+                output.close();
+            } catch (IOException ignored) {}
+        }
+        BufferedWriter newOutput = new BufferedWriter(new OutputStreamWriter(newSocket.getOutputStream()));
+        // The handshake is written before the new output is used by the outbound queue, so it comes first
+        if(sessionToken != null) {
+            resuming = true;
+            newOutput.write(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.RESUME_MESSAGE + " " + sessionToken + " " + receivedMessages);
+        } else {
+            newOutput.write(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.SESSION_MESSAGE);
+        }
+        newOutput.newLine();
+        newOutput.flush();
+        this.socket = newSocket;
+        this.input = new BufferedReader(new InputStreamReader(newSocket.getInputStream()));
+        this.output = newOutput;
+    }
+
+    /**
+     * Try to reconnect to the server, waiting longer after each failed attempt
+     * @return A boolean, <code>true</code> if reconnected, <code>false</code> if the client gave up
+     */
+    private boolean reconnect() {
+        reconnecting = true;
+        // Messages sent meanwhile are kept until the connection is back
+        outbound.setPaused(true);
+        serverListeners.forEach(ServerListener::onServerConnectionLost);
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+        long delay = reconnectInitialDelay;
+        for(int attempt = 0; !closing && (maxReconnectAttempts <= 0 || attempt < maxReconnectAttempts); attempt++) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                break;
+            }
+            delay = Math.min(delay * 2, reconnectMaxDelay);
+            try {
+                connect();
+            } catch (IOException e) {
+                continue;
+            }
+            reconnecting = false;
+            outbound.setPaused(false);
+            acknowledgeRoomState();
+            // Without a session the server cannot restore anything, otherwise wait for its answer
+            if(sessionToken == null)
+                serverListeners.forEach(serverListener -> serverListener.onServerReconnect(false));
+            return true;
+        }
+        reconnecting = false;
+        return false;
     }
 
     private void startServerInputThread() {
@@ -95,6 +293,8 @@ public class Client {
                 } catch (IOException ignored) {}
                 // Check if the message is null, a null message from the server represents a disconnection
                 if(completeMessage == null) {
+                    if(!closing && autoReconnect && reconnect())
+                        continue;
                     disconnectFromServer();
                     break;
                 }
@@ -103,13 +303,38 @@ public class Client {
                 // Check if the first part of the message to know if it is an internal message
                 if(splitMessage[0].equals(Server.INTERNAL_MESSAGE_PREFIX) && splitMessage.length > 1) {
                     String message = splitMessage[1];
+                    // Ping message, it is sent back so the server can measure the delay
+                    if(message.equals(Server.PING_MESSAGE))
+                        outbound.send(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.PING_MESSAGE, Priority.CONTROL);
                     // Disconnect message
                     if(message.equals(Server.DISCONNECT_MESSAGE)) {
                         disconnectFromServer();
                         break;
                     }
+                    // Session message, a new session replaces the previous one
+                    if(message.equals(Server.SESSION_MESSAGE) && splitMessage.length > 2) {
+                        boolean failedResume = resuming;
+                        sessionToken = splitMessage[2];
+                        receivedMessages = 0;
+                        resuming = false;
+                        if(failedResume)
+                            serverListeners.forEach(serverListener -> serverListener.onServerReconnect(false));
+                    }
+                    // Resumed message, it is followed by the messages missed while disconnected
+                    if(message.equals(Server.RESUMED_MESSAGE) && splitMessage.length > 2) {
+                        boolean complete = Boolean.parseBoolean(splitMessage[2]);
+                        resuming = false;
+                        acknowledgeRoomState();
+                        serverListeners.forEach(serverListener -> serverListener.onServerReconnect(complete));
+                    }
+                    // State message, it is part of the session's messages so it is counted
+                    if(message.equals(Server.STATE_MESSAGE)) {
+                        receivedMessages++;
+                        applyRoomState(splitMessage);
+                    }
                     continue;
                 }
+                receivedMessages++;
                 String finalMessage = completeMessage;
                 serverListeners.forEach(serverListener -> serverListener.onServerMessage(finalMessage));
             }
@@ -121,7 +346,32 @@ public class Client {
         }).start();
     }
 
+    /**
+     * Apply a room state update, acknowledge it and notify the listeners
+     * @param splitMessage The state message split on spaces
+     */
+    private void applyRoomState(String[] splitMessage) {
+        Set<String> changedKeys = new HashSet<>();
+        long tick = roomState.apply(splitMessage, changedKeys);
+        if(tick >= 0)
+            outbound.send(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.ACK_MESSAGE + " " + splitMessage[2] + " " + tick, Priority.CONTROL);
+        if(!changedKeys.isEmpty())
+            serverListeners.forEach(serverListener -> serverListener.onRoomStateChange(roomState, changedKeys));
+    }
+
+    /**
+     * Acknowledge the current room state again, the acknowledgements written on a lost connection may not have arrived
+     */
+    private void acknowledgeRoomState() {
+        String acknowledgement = roomState.getAcknowledgement();
+        if(acknowledgement != null)
+            outbound.send(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.ACK_MESSAGE + " " + acknowledgement, Priority.CONTROL);
+    }
+
     private void disconnectFromServer() {
+        // Fail the queued messages, the queue may still be paused by a reconnect which gave up
+        outbound.close(null);
+        outbound.setPaused(false);
         try {
             socket.close();
             output.close();
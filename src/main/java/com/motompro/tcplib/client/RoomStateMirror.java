@@ -0,0 +1,141 @@
+package com.motompro.tcplib.client;
+
+import com.motompro.tcplib.server.RoomState;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.*;
+
+/**
+ * This class represents the client side copy of the {@link RoomState} of the room the client is in.<br>
+ * It is updated by the snapshots and deltas sent by the server, and every applied update is acknowledged
+ * so the next delta only contains the newer changes.
+ */
+public class RoomStateMirror {
+
+    private final Map<String, String> values = new HashMap<>();
+    private UUID roomUuid;
+    private long tick = -1;
+
+    /**
+     * Get the {@link UUID} of the room this state belongs to
+     * @return An {@link Optional} containing the room's {@link UUID}, empty if the client is in no room with a state
+     */
+    public synchronized Optional<UUID> getRoomUuid() {
+        return Optional.ofNullable(roomUuid);
+    }
+
+    /**
+     * Get the tick of the last applied update
+     * @return A long, <code>-1</code> if no update has been received
+     */
+    public synchronized long getTick() {
+        return tick;
+    }
+
+    /**
+     * Get a value
+     * @param key The {@link String} key
+     * @return An {@link Optional} containing the value
+     */
+    public synchronized Optional<String> get(String key) {
+        return Optional.ofNullable(values.get(key));
+    }
+
+    /**
+     * Get a copy of every value
+     * @return A {@link Map} of the values by key
+     */
+    public synchronized Map<String, String> getAll() {
+        return new HashMap<>(values);
+    }
+
+    /**
+     * Get the acknowledgement of the current state, sent again after a reconnect since the acknowledgements
+     * written on a lost connection are not replayed
+     * @return A {@link String} made of the room's {@link UUID} and the tick, <code>null</code> if the client is in no room with a state
+     */
+    synchronized String getAcknowledgement() {
+        return roomUuid != null ? roomUuid + " " + tick : null;
+    }
+
+    /**
+     * Apply a state message received from the server
+     * @param splitMessage The message split on spaces, starting with the internal prefix
+     * @param changedKeys The {@link Set} the changed keys are added to
+     * @return The tick to acknowledge, <code>-1</code> if the message must not be acknowledged. A message of the
+     *         current room which cannot be applied is answered with the current tick, so the server can rebase its
+     *         deltas even if a previous acknowledgement was lost
+     */
+    synchronized long apply(String[] splitMessage, Set<String> changedKeys) {
+        if(splitMessage.length < 5)
+            return -1;
+        UUID messageRoom;
+        long messageTick;
+        try {
+            messageRoom = UUID.fromString(splitMessage[2]);
+            messageTick = Long.parseLong(splitMessage[3]);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        String base = splitMessage[4];
+        // Leave message, the client is not in the room anymore
+        if(base.equals(RoomState.LEAVE)) {
+            if(!messageRoom.equals(roomUuid))
+                return -1;
+            changedKeys.addAll(values.keySet());
+            values.clear();
+            roomUuid = null;
+            tick = -1;
+            return -1;
+        }
+        // Full snapshot, it replaces the whole state unless it is older than the current one
+        if(base.equals(RoomState.FULL_SNAPSHOT)) {
+            if(messageRoom.equals(roomUuid) && messageTick < tick)
+                return tick;
+            changedKeys.addAll(values.keySet());
+            values.clear();
+            roomUuid = messageRoom;
+        } else {
+            long baseTick;
+            try {
+                baseTick = Long.parseLong(base);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            if(!messageRoom.equals(roomUuid))
+                return -1;
+            // Already applied deltas, or deltas based on a state this client does not have
+            if(messageTick <= tick || baseTick > tick)
+                return tick;
+        }
+        for(int i = 5; i < splitMessage.length; i++) {
+            String entry = splitMessage[i];
+            int separator = entry.indexOf('=');
+            if(separator < 0) {
+                String key = decode(entry);
+                values.remove(key);
+                changedKeys.add(key);
+            } else {
+                String key = decode(entry.substring(0, separator));
+                values.put(key, decode(entry.substring(separator + 1)));
+                changedKeys.add(key);
+            }
+        }
+        tick = messageTick;
+        return tick;
+    }
+
+    /**
+     * Decode a key or a value encoded by the server
+     * @param text The encoded {@link String}
+     * @return The decoded {@link String}
+     */
+    private static String decode(String text) {
+        try {
+            return URLDecoder.decode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.motompro.tcplib.client;
 
+import java.util.Set;
+
 /**
  * This interface is used to get the output data of a server.<br>
  * To get it working you must implement it in a class and then register it in a {@link Client}
@@ -17,4 +19,23 @@ public interface ServerListener {
      * @param message The message
      */
     void onServerMessage(String message);
+
+    /**
+     * This method is called when the connection to the server is lost and the client starts reconnecting
+     */
+    default void onServerConnectionLost() {}
+
+    /**
+     * This method is called when the client reconnected to the server
+     * @param resumed <code>true</code> if the previous session has been resumed without missing any message,
+     *                <code>false</code> if a new session started and the client must synchronize its state again
+     */
+    default void onServerReconnect(boolean resumed) {}
+
+    /**
+     * This method is called when the state of the client's room changed
+     * @param roomState The updated {@link RoomStateMirror}
+     * @param changedKeys A {@link Set} of the changed or removed keys
+     */
+    default void onRoomStateChange(RoomStateMirror roomState, Set<String> changedKeys) {}
 }
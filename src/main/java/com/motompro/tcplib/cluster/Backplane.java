@@ -0,0 +1,45 @@
+package com.motompro.tcplib.cluster;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This interface represents the link between the nodes of a cluster.<br>
+ * A backplane carries the messages published by one node to every other node. It never delivers a message
+ * back to the node which published it, the publisher is responsible for its own local delivery.
+ * To get it working you must register it in a {@link com.motompro.tcplib.server.Server} instance using the
+ * {@link com.motompro.tcplib.server.Server#setBackplane(Backplane)} method.
+ */
+public interface Backplane {
+
+    /**
+     * Send a message to every other node of the cluster
+     * @param channel The {@link String} channel the message is published on, it <strong>MUST NOT</strong> contain spaces
+     * @param message The {@link String} message
+     */
+    void publish(String channel, String message);
+
+    /**
+     * Register a {@link BackplaneListener} to this backplane
+     * @param backplaneListener
+     */
+    void addBackplaneListener(BackplaneListener backplaneListener);
+
+    /**
+     * Unregister a {@link BackplaneListener} from this backplane
+     * @param backplaneListener
+     */
+    void removeBackplaneListener(BackplaneListener backplaneListener);
+
+    /**
+     * Get all registered {@link BackplaneListener}
+     * @return A {@link List} of {@link BackplaneListener}
+     */
+    List<BackplaneListener> getBackplaneListeners();
+
+    /**
+     * Close the connections between this node and the rest of the cluster
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,16 @@
+package com.motompro.tcplib.cluster;
+
+/**
+ * This interface is used to get the messages published by the other nodes of a cluster.<br>
+ * To get it working you must implement it in a class and then register it in a {@link Backplane}
+ * instance using the {@link Backplane#addBackplaneListener(BackplaneListener)} method.
+ */
+public interface BackplaneListener {
+
+    /**
+     * This method is called when a message published by another node is received
+     * @param channel The {@link String} channel the message was published on
+     * @param message The {@link String} message
+     */
+    void onBackplaneMessage(String channel, String message);
+}
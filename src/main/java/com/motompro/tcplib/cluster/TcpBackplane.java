@@ -0,0 +1,342 @@
+package com.motompro.tcplib.cluster;
+
+import com.motompro.tcplib.client.Client;
+import com.motompro.tcplib.client.ServerListener;
+import com.motompro.tcplib.server.ClientListener;
+import com.motompro.tcplib.server.Server;
+import com.motompro.tcplib.server.ServerSideClient;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class represents a {@link Backplane} using this library's own TCP transport between the nodes.<br>
+ * Every node listens to a port with a {@link Server} and connects to each of its peers with a {@link Client}.
+ * Published messages are queued and sent to the peers in batches, a batch being written with a single flush.<br>
+ * When the connection to a peer is lost, the peer is kept and reconnected with an exponential backoff. The messages
+ * published meanwhile are kept in a bounded backlog and sent once the peer is back.
+ */
+public class TcpBackplane implements Backplane {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    // Maximum time (in millisecond) the flush thread waits for a message before checking if the backplane is closed
+    private static final long FLUSH_POLL_DELAY = 100;
+    public static final int DEFAULT_MAX_BACKLOG_SIZE = 65536;
+
+    /**
+     * A node this node sends its messages to
+     */
+    private class Peer {
+
+        private final String ip;
+        private final int port;
+        // null while reconnecting
+        private volatile Client client;
+        // Messages waiting for the connection to be back, only used by the flush thread
+        private final Deque<String> backlog = new ArrayDeque<>();
+        private volatile boolean removed = false;
+
+        private Peer(String ip, int port) {
+            this.ip = ip;
+            this.port = port;
+        }
+
+        /**
+         * Open the connection to the peer
+         * @throws IOException
+         */
+        private void connect() throws IOException {
+            Client newClient = new Client(ip, port);
+            newClient.addServerListener(new ServerListener() {
+                @Override
+                public void onServerDisconnect() {
+                    connectionLost(newClient);
+                }
+
+                @Override
+                public void onServerMessage(String message) {}
+            });
+            this.client = newClient;
+        }
+
+        /**
+         * Forget a lost connection and reconnect in the background
+         * @param lostClient The {@link Client} whose connection was lost
+         */
+        private synchronized void connectionLost(Client lostClient) {
+            if(client != lostClient)
+                return;
+            client = null;
+            if(closed || removed)
+                return;
+            new Thread(this::reconnect).start();
+        }
+
+        /**
+         * Try to reconnect until it succeeds, the peer is removed or the backplane is closed
+         */
+        private void reconnect() {
+            long delay = Client.DEFAULT_RECONNECT_INITIAL_DELAY;
+            while(!closed && !removed) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                delay = Math.min(delay * 2, Client.DEFAULT_RECONNECT_MAX_DELAY);
+                try {
+                    connect();
+                } catch (IOException e) {
+                    continue;
+                }
+                // The peer may have been removed while connecting
+                if(closed || removed)
+                    close();
+                return;
+            }
+        }
+
+        /**
+         * Send a batch, after the backlog, or add it to the backlog if the peer is not connected.
+         * It must only be called by the flush thread.
+         * @param batch The {@link List} of messages, it can be empty to only send the backlog
+         */
+        private void send(List<String> batch) {
+            Client currentClient = client;
+            if(currentClient != null && backlog.isEmpty()) {
+                try {
+                    currentClient.sendMessages(batch);
+                    return;
+                } catch (IOException ignored) {}
+            }
+            backlog.addAll(batch);
+            // Drop the oldest messages of a peer which stays unreachable
+            while(backlog.size() > maxBacklogSize)
+                backlog.removeFirst();
+            if(currentClient == null || backlog.isEmpty())
+                return;
+            try {
+                currentClient.sendMessages(backlog);
+                backlog.clear();
+            } catch (IOException ignored) {}
+        }
+
+        /**
+         * Close the connection to the peer
+         */
+        private void close() {
+            Client currentClient = client;
+            if(currentClient == null)
+                return;
+            try {
+                currentClient.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private final Server<ServerSideClient> server;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final List<BackplaneListener> backplaneListeners = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<String> pendingMessages = new LinkedBlockingQueue<>();
+    private final int maxBatchSize;
+    private volatile int maxBacklogSize = DEFAULT_MAX_BACKLOG_SIZE;
+    private volatile boolean closed = false;
+
+    /**
+     * Create an instance of {@link TcpBackplane} which will listen to an unknown free port
+     * @throws IOException
+     */
+    public TcpBackplane() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Create an instance of {@link TcpBackplane} with a specified port
+     * @param port The port the other nodes will connect to
+     * @throws IOException
+     */
+    public TcpBackplane(int port) throws IOException {
+        this(port, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Create an instance of {@link TcpBackplane} with a specified port and batch size
+     * @param port The port the other nodes will connect to
+     * @param maxBatchSize The maximum amount of messages written to a peer with a single flush
+     * @throws IOException
+     */
+    public TcpBackplane(int port, int maxBatchSize) throws IOException {
+        if(maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        this.maxBatchSize = maxBatchSize;
+        this.server = new Server<ServerSideClient>(port) {
+            @Override
+            protected ServerSideClient generateClient(ServerSideClient client) {
+                return client;
+            }
+        };
+        server.addClientListener(new ClientListener<ServerSideClient>() {
+            @Override
+            public void onClientConnect(ServerSideClient client) {}
+
+            @Override
+            public void onClientDisconnect(ServerSideClient client) {}
+
+            @Override
+            public void onClientMessage(ServerSideClient client, String message) {
+                receive(message);
+            }
+        });
+        startFlushThread();
+    }
+
+    /**
+     * Get the port the other nodes must connect to
+     * @return An integer representing the port
+     */
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * Set the maximum amount of messages kept for a peer while it is reconnecting. The oldest messages are dropped
+     * once it is reached.<br>
+     * This parameter is set at {@link #DEFAULT_MAX_BACKLOG_SIZE} by default
+     * @param maxBacklogSize The amount of messages
+     */
+    public void setMaxBacklogSize(int maxBacklogSize) {
+        if(maxBacklogSize < 0)
+            throw new IllegalArgumentException("maxBacklogSize must not be negative");
+        this.maxBacklogSize = maxBacklogSize;
+    }
+
+    /**
+     * Connect this node to another node of the cluster. Messages published on this node will be sent to it.<br>
+     * To get a two-way link, the other node must also add this node as a peer.
+     * @param ip The IP address of the other node
+     * @param port The port of the other node's backplane
+     * @throws IOException If the first connection to the other node fails
+     */
+    public void addPeer(String ip, int port) throws IOException {
+        String key = ip + ":" + port;
+        if(peers.containsKey(key))
+            return;
+        Peer peer = new Peer(ip, port);
+        peer.connect();
+        if(peers.putIfAbsent(key, peer) != null)
+            peer.close();
+    }
+
+    /**
+     * Disconnect this node from another node of the cluster
+     * @param ip The IP address of the other node
+     * @param port The port of the other node's backplane
+     * @throws IOException
+     */
+    public void removePeer(String ip, int port) throws IOException {
+        Peer peer = peers.remove(ip + ":" + port);
+        if(peer != null) {
+            peer.removed = true;
+            peer.close();
+        }
+    }
+
+    /**
+     * Get whether the connection to a peer is opened or being reconnected
+     * @param ip The IP address of the other node
+     * @param port The port of the other node's backplane
+     * @return A {@link Boolean}, <code>true</code> if connected, <code>false</code> if reconnecting or not a peer
+     */
+    public boolean isPeerConnected(String ip, int port) {
+        Peer peer = peers.get(ip + ":" + port);
+        return peer != null && peer.client != null;
+    }
+
+    /**
+     * Get the addresses of the nodes this node sends its messages to, including the ones being reconnected
+     * @return A {@link Set} of {@link String} formatted as <code>ip:port</code>
+     */
+    public Set<String> getPeers() {
+        return Collections.unmodifiableSet(peers.keySet());
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        if(channel.isEmpty() || channel.contains(" "))
+            throw new IllegalArgumentException("Invalid channel: " + channel);
+        if(closed)
+            return;
+        pendingMessages.add(channel + " " + message);
+    }
+
+    @Override
+    public void addBackplaneListener(BackplaneListener backplaneListener) {
+        this.backplaneListeners.add(backplaneListener);
+    }
+
+    @Override
+    public void removeBackplaneListener(BackplaneListener backplaneListener) {
+        this.backplaneListeners.remove(backplaneListener);
+    }
+
+    @Override
+    public List<BackplaneListener> getBackplaneListeners() {
+        return backplaneListeners;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for(Peer peer : peers.values())
+            peer.close();
+        peers.clear();
+        server.close();
+    }
+
+    /**
+     * Get whether this backplane is closed or not
+     * @return A {@link Boolean}, <code>true</code> if closed, <code>false</code> if opened
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Dispatch a message received from another node to the listeners
+     * @param completeMessage The received message, containing the channel and the message
+     */
+    private void receive(String completeMessage) {
+        int separator = completeMessage.indexOf(' ');
+        if(separator <= 0)
+            return;
+        String channel = completeMessage.substring(0, separator);
+        String message = completeMessage.substring(separator + 1);
+        backplaneListeners.forEach(backplaneListener -> backplaneListener.onBackplaneMessage(channel, message));
+    }
+
+    /**
+     * The flush thread. It waits for published messages and sends them to the peers, grouping together every
+     * message queued while the previous batch was being written. It also sends the backlog of reconnected peers.
+     */
+    private void startFlushThread() {
+        new Thread(() -> {
+            List<String> batch = new ArrayList<>(maxBatchSize);
+            while(!closed) {
+                String first;
+                try {
+                    first = pendingMessages.poll(FLUSH_POLL_DELAY, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                // Without new message, only the backlogs of the reconnected peers are sent
+                if(first != null) {
+                    batch.add(first);
+                    pendingMessages.drainTo(batch, maxBatchSize - 1);
+                }
+                peers.values().forEach(peer -> peer.send(batch));
+                batch.clear();
+            }
+        }).start();
+    }
+}
@@ -0,0 +1,441 @@
+package com.motompro.tcplib.queue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents the outgoing path of a connection. Messages are queued in one lane per {@link Priority}
+ * and written from the highest priority lane to the lowest.<br>
+ * Any amount of threads can send at once: the lanes are lock-free queues and a single thread writes at a time.
+ * There is no writer thread, the thread sending a message writes the queued messages itself unless another thread
+ * is already writing, in which case that thread will write the new message too. The writing thread flushes when the
+ * queue is empty or after a {@link Priority#CONTROL} message.
+ * Each message gets a {@link CompletableFuture} completed once it is flushed, or completed exceptionally with the
+ * {@link IOException} which prevented it from being written.
+ */
+public class OutboundQueue {
+
+    /**
+     * This interface represents the connection the messages are written to
+     */
+    public interface Sink {
+
+        /**
+         * Write a message, without flushing
+         * @param message The {@link String} message
+         * @param priority The {@link Priority} of the message
+         * @throws IOException
+         */
+        void write(String message, Priority priority) throws IOException;
+
+        /**
+         * Flush the written messages
+         * @throws IOException
+         */
+        void flush() throws IOException;
+
+        /**
+         * Close the connection
+         * @throws IOException
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * A queued message
+     */
+    private static class Entry {
+
+        private final String message;
+        private final Priority priority;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        // The sink is closed once this entry is written
+        private final boolean last;
+
+        private Entry(String message, Priority priority, boolean last) {
+            this.message = message;
+            this.priority = priority;
+            this.last = last;
+        }
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final Sink sink;
+    private final ConcurrentLinkedQueue<Entry>[] lanes;
+    private final AtomicInteger[] depths = new AtomicInteger[PRIORITIES.length];
+    private final AtomicInteger[] maxDepths = new AtomicInteger[PRIORITIES.length];
+    private final AtomicLong[] enqueued = new AtomicLong[PRIORITIES.length];
+    private final AtomicLong[] written = new AtomicLong[PRIORITIES.length];
+    private final AtomicLong[] dropped = new AtomicLong[PRIORITIES.length];
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    // Entries written but not flushed yet, only used by the writing thread
+    private final List<Entry> unflushed = new ArrayList<>();
+    private final Object emptyLock = new Object();
+    private final AtomicInteger emptyWaiters = new AtomicInteger(0);
+    private volatile boolean paused = false;
+    // Maximum amount of non control messages kept while paused, -1 for no limit
+    private volatile int pausedCapacity = -1;
+    // Messages dropped since the queue was paused with a capacity
+    private final AtomicLong pausedDrops = new AtomicLong();
+    private volatile boolean closing = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param sink The {@link Sink} the messages are written to
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OutboundQueue(Sink sink) {
+        this.sink = sink;
+        this.lanes = new ConcurrentLinkedQueue[PRIORITIES.length];
+        for(int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+            depths[i] = new AtomicInteger();
+            maxDepths[i] = new AtomicInteger();
+            enqueued[i] = new AtomicLong();
+            written[i] = new AtomicLong();
+            dropped[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Queue a message and write the queue if no other thread is writing it
+     * @param message The {@link String} message
+     * @param priority The {@link Priority} of the message
+     * @return A {@link CompletableFuture} completed when the message is flushed, or exceptionally if it could not be written
+     */
+    public CompletableFuture<Void> send(String message, Priority priority) {
+        Entry entry = new Entry(message, priority, false);
+        if(closing) {
+            entry.future.completeExceptionally(new IOException("Connection closed"));
+            return entry.future;
+        }
+        enqueue(entry);
+        // The queue may have been closed while adding the entry
+        if(closed)
+            discardQueued();
+        else if(paused)
+            trimPaused();
+        else
+            write();
+        return entry.future;
+    }
+
+    /**
+     * Queue several messages of the same priority at once, so they are written together
+     * @param messages The {@link Collection} of {@link String} messages
+     * @param priority The {@link Priority} of the messages
+     * @return A {@link CompletableFuture} completed when every message is flushed, or exceptionally if one could not be written
+     */
+    @SuppressWarnings("rawtypes")
+    public CompletableFuture<Void> sendAll(Collection<String> messages, Priority priority) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(messages.size());
+        for(String message : messages) {
+            Entry entry = new Entry(message, priority, false);
+            if(closing)
+                entry.future.completeExceptionally(new IOException("Connection closed"));
+            else
+                enqueue(entry);
+            futures.add(entry.future);
+        }
+        if(closed)
+            discardQueued();
+        else if(paused)
+            trimPaused();
+        else
+            write();
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Discard the queued messages, send a last message and then close the sink
+     * @param lastMessage The {@link String} message written before closing, sent as {@link Priority#CONTROL},
+     *                    <code>null</code> to close without sending anything
+     * @return A {@link CompletableFuture} completed when the last message is flushed, or exceptionally if it could not be written
+     */
+    public CompletableFuture<Void> close(String lastMessage) {
+        Entry entry = new Entry(lastMessage, Priority.CONTROL, true);
+        if(closing) {
+            entry.future.completeExceptionally(new IOException("Connection closed"));
+            return entry.future;
+        }
+        closing = true;
+        discardQueued();
+        enqueue(entry);
+        write();
+        return entry.future;
+    }
+
+    /**
+     * Stop or restart writing. Messages sent while paused are kept in the queue.
+     * @param paused <code>true</code> to stop writing, <code>false</code> to write the queued messages and go on
+     */
+    public void setPaused(boolean paused) {
+        this.pausedCapacity = -1;
+        this.paused = paused;
+        if(!paused)
+            write();
+    }
+
+    /**
+     * Stop writing and keep a bounded amount of messages until writing restarts. Once the capacity is reached, the
+     * oldest messages of the lowest priority lane are dropped first. {@link Priority#CONTROL} messages are never
+     * dropped nor counted.
+     * @param capacity The maximum amount of messages kept
+     */
+    public void pause(int capacity) {
+        pausedDrops.set(0);
+        this.pausedCapacity = capacity;
+        this.paused = true;
+        trimPaused();
+    }
+
+    /**
+     * Get the amount of messages dropped since the queue was paused with {@link #pause(int)}
+     * @return A long representing the amount
+     */
+    public long getPausedDrops() {
+        return pausedDrops.get();
+    }
+
+    /**
+     * Get whether the queue is closed or closing
+     * @return A {@link Boolean}, <code>true</code> if closed, <code>false</code> if opened
+     */
+    public boolean isClosed() {
+        return closing;
+    }
+
+    /**
+     * Wait for every queued message to be written
+     * @param timeout The maximum time to wait in millisecond
+     * @return A boolean, <code>true</code> if the queue is empty, <code>false</code> if the timeout was reached
+     */
+    public boolean awaitEmpty(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        emptyWaiters.incrementAndGet();
+        try {
+            synchronized(emptyLock) {
+                long remaining = timeout;
+                while((writing.get() || hasQueued()) && !closed && remaining > 0) {
+                    emptyLock.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            emptyWaiters.decrementAndGet();
+        }
+        return !writing.get() && !hasQueued();
+    }
+
+    /**
+     * Wait for the thread currently writing to release the writer role. Once the queue is paused, no message is
+     * written after this method returns until writing restarts.
+     */
+    public void awaitWriter() {
+        emptyWaiters.incrementAndGet();
+        try {
+            synchronized(emptyLock) {
+                while(writing.get())
+                    emptyLock.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            emptyWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get the metrics of a lane
+     * @param priority The {@link Priority} of the lane
+     * @return The {@link QueueMetrics} of the lane
+     */
+    public QueueMetrics getMetrics(Priority priority) {
+        int lane = priority.ordinal();
+        return new QueueMetrics(enqueued[lane].get(), written[lane].get(), dropped[lane].get(),
+                depths[lane].get(), maxDepths[lane].get());
+    }
+
+    /**
+     * Add an entry to its lane and update the lane's metrics
+     * @param entry The {@link Entry} to add
+     */
+    private void enqueue(Entry entry) {
+        int lane = entry.priority.ordinal();
+        lanes[lane].offer(entry);
+        enqueued[lane].incrementAndGet();
+        int depth = depths[lane].incrementAndGet();
+        maxDepths[lane].accumulateAndGet(depth, Math::max);
+    }
+
+    /**
+     * Take the next entry to write, from the highest priority lane
+     * @return The {@link Entry}, <code>null</code> if the queue is empty
+     */
+    private Entry poll() {
+        for(int i = 0; i < lanes.length; i++) {
+            Entry entry = lanes[i].poll();
+            if(entry != null) {
+                depths[i].decrementAndGet();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check if any lane contains an entry
+     * @return A boolean, <code>true</code> if an entry is queued, <code>false</code> otherwise
+     */
+    private boolean hasQueued() {
+        for(ConcurrentLinkedQueue<Entry> lane : lanes) {
+            if(!lane.isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drop the oldest entries of the lowest priority lanes until the paused capacity is respected
+     */
+    private void trimPaused() {
+        int capacity = pausedCapacity;
+        if(capacity < 0)
+            return;
+        int lane = lanes.length - 1;
+        while(paused && lane > Priority.CONTROL.ordinal() && queuedMessages() > capacity) {
+            Entry entry = lanes[lane].poll();
+            if(entry == null) {
+                lane--;
+                continue;
+            }
+            depths[lane].decrementAndGet();
+            dropped[lane].incrementAndGet();
+            pausedDrops.incrementAndGet();
+            entry.future.completeExceptionally(new IOException("Dropped while the connection is suspended"));
+        }
+    }
+
+    /**
+     * Count the queued entries which can be dropped, every lane except the {@link Priority#CONTROL} one
+     * @return An integer representing the amount
+     */
+    private int queuedMessages() {
+        int count = 0;
+        for(int i = Priority.CONTROL.ordinal() + 1; i < depths.length; i++)
+            count += depths[i].get();
+        return count;
+    }
+
+    /**
+     * Remove every queued entry and fail its future
+     */
+    private void discardQueued() {
+        IOException exception = new IOException("Connection closed");
+        Entry entry;
+        while((entry = poll()) != null) {
+            dropped[entry.priority.ordinal()].incrementAndGet();
+            entry.future.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Write the queued messages if no other thread is writing them.<br>
+     * The queue is checked again after releasing the writer role, so a message queued while the previous writer
+     * was finishing is not left behind.
+     */
+    private void write() {
+        while(!paused && !closed && hasQueued() && writing.compareAndSet(false, true)) {
+            try {
+                writeQueued();
+            } finally {
+                writing.set(false);
+            }
+            if(emptyWaiters.get() > 0) {
+                synchronized(emptyLock) {
+                    emptyLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the queued entries until the queue is empty or paused. It must only be called by the writing thread.
+     */
+    private void writeQueued() {
+        Entry entry;
+        while(!paused && (entry = poll()) != null) {
+            if(closed) {
+                dropped[entry.priority.ordinal()].incrementAndGet();
+                entry.future.completeExceptionally(new IOException("Connection closed"));
+                continue;
+            }
+            if(entry.message != null) {
+                try {
+                    sink.write(entry.message, entry.priority);
+                } catch (IOException e) {
+                    entry.future.completeExceptionally(e);
+                    failUnflushed(e);
+                    if(entry.last)
+                        closeSink();
+                    continue;
+                }
+                written[entry.priority.ordinal()].incrementAndGet();
+            }
+            unflushed.add(entry);
+            // Control messages must not wait for the rest of the queue
+            if(entry.priority == Priority.CONTROL)
+                flush();
+            if(entry.last)
+                closeSink();
+        }
+        flush();
+    }
+
+    /**
+     * Flush the sink and complete the futures of the written entries
+     */
+    private void flush() {
+        if(unflushed.isEmpty())
+            return;
+        try {
+            sink.flush();
+        } catch (IOException e) {
+            failUnflushed(e);
+            return;
+        }
+        unflushed.forEach(entry -> entry.future.complete(null));
+        unflushed.clear();
+    }
+
+    /**
+     * Fail the futures of the written entries which could not be flushed
+     * @param exception The {@link IOException} which occurred
+     */
+    private void failUnflushed(IOException exception) {
+        unflushed.forEach(entry -> entry.future.completeExceptionally(exception));
+        unflushed.clear();
+    }
+
+    /**
+     * Close the sink and fail the entries queued after the last message
+     */
+    private void closeSink() {
+        closed = true;
+        try {
+            sink.close();
+        } catch (IOException ignored) {}
+        discardQueued();
+    }
+}
@@ -0,0 +1,19 @@
+package com.motompro.tcplib.queue;
+
+/**
+ * This enum represents the priority of an outgoing message. Queued messages are written from the highest priority
+ * to the lowest, and in sending order within a same priority.
+ */
+public enum Priority {
+
+    /**
+     * Reserved to the internal messages of the lib, such as pings and disconnect notices
+     */
+    CONTROL,
+    HIGH,
+    NORMAL,
+    /**
+     * Bulk data which can wait behind every other message
+     */
+    LOW
+}
@@ -0,0 +1,85 @@
+package com.motompro.tcplib.queue;
+
+/**
+ * This class represents the state of an {@link OutboundQueue} for one {@link Priority}. It is a snapshot taken when
+ * {@link OutboundQueue#getMetrics(Priority)} is called.
+ */
+public class QueueMetrics {
+
+    private final long enqueued;
+    private final long written;
+    private final long dropped;
+    private final int depth;
+    private final int maxDepth;
+
+    /**
+     * @param enqueued The amount of messages added to the queue
+     * @param written The amount of messages written to the connection
+     * @param dropped The amount of messages discarded because the connection was closing or suspended
+     * @param depth The amount of messages currently waiting in the queue
+     * @param maxDepth The highest amount of messages which waited in the queue at once
+     */
+    public QueueMetrics(long enqueued, long written, long dropped, int depth, int maxDepth) {
+        this.enqueued = enqueued;
+        this.written = written;
+        this.dropped = dropped;
+        this.depth = depth;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Get the amount of messages added to the queue
+     * @return A long representing the amount
+     */
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * Get the amount of messages written to the connection
+     * @return A long representing the amount
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Get the amount of messages discarded because the connection was closing or suspended
+     * @return A long representing the amount
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the amount of messages currently waiting in the queue
+     * @return An integer representing the amount
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Get the highest amount of messages which waited in the queue at once
+     * @return An integer representing the amount
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Combine the metrics of two queues
+     * @param other The other {@link QueueMetrics}
+     * @return A new {@link QueueMetrics} with summed counters and the highest max depth
+     */
+    public QueueMetrics add(QueueMetrics other) {
+        return new QueueMetrics(enqueued + other.enqueued, written + other.written, dropped + other.dropped,
+                depth + other.depth, Math.max(maxDepth, other.maxDepth));
+    }
+
+    @Override
+    public String toString() {
+        return "QueueMetrics{enqueued=" + enqueued + ", written=" + written + ", dropped=" + dropped
+                + ", depth=" + depth + ", maxDepth=" + maxDepth + "}";
+    }
+}
@@ -26,4 +26,10 @@ public interface ClientListener<SSC extends ServerSideClient> {
      * @param message The {@link String} message
      */
     void onClientMessage(SSC client, String message);
+
+    /**
+     * This method is called when a client which lost its connection resumes its session
+     * @param client The {@link SSC} object associated to the resuming client
+     */
+    default void onClientResume(SSC client) {}
 }
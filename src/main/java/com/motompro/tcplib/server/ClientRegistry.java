@@ -0,0 +1,109 @@
+package com.motompro.tcplib.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * This class stores the connected clients in an array indexed by their connection id.<br>
+ * Ids are dense: the id of a disconnected client is given to the next connecting client, so the array stays
+ * as small as the highest amount of simultaneously connected clients. Lookups do not lock.
+ * @param <SSC> An object extending {@link ServerSideClient}
+ */
+class ClientRegistry<SSC extends ServerSideClient> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicReferenceArray<SSC> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    // Stack of the ids released by disconnected clients
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int freeIdCount = 0;
+    // Lowest id never given to a client
+    private volatile int nextId = 0;
+    private volatile int size = 0;
+
+    /**
+     * Give an id to a client and store it
+     * @param client The {@link SSC} which will be registered
+     * @return The id given to the client
+     */
+    synchronized int register(SSC client) {
+        int id = freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+        AtomicReferenceArray<SSC> currentSlots = slots;
+        if(id >= currentSlots.length()) {
+            AtomicReferenceArray<SSC> newSlots = new AtomicReferenceArray<>(currentSlots.length() * 2);
+            for(int i = 0; i < currentSlots.length(); i++)
+                newSlots.set(i, currentSlots.get(i));
+            currentSlots = newSlots;
+        }
+        client.setId(id);
+        currentSlots.set(id, client);
+        slots = currentSlots;
+        size++;
+        return id;
+    }
+
+    /**
+     * Remove a client and release its id
+     * @param client The {@link SSC} which will be unregistered
+     * @return A boolean, <code>true</code> if the client was registered, <code>false</code> otherwise
+     */
+    synchronized boolean unregister(SSC client) {
+        int id = client.getId();
+        if(id < 0 || id >= slots.length() || !slots.compareAndSet(id, client, null))
+            return false;
+        if(freeIdCount == freeIds.length) {
+            int[] newFreeIds = new int[freeIds.length * 2];
+            System.arraycopy(freeIds, 0, newFreeIds, 0, freeIdCount);
+            freeIds = newFreeIds;
+        }
+        freeIds[freeIdCount++] = id;
+        size--;
+        return true;
+    }
+
+    /**
+     * Get the client owning an id
+     * @param id The connection id
+     * @return The {@link SSC}, <code>null</code> if no client owns this id
+     */
+    SSC get(int id) {
+        AtomicReferenceArray<SSC> currentSlots = slots;
+        if(id < 0 || id >= currentSlots.length())
+            return null;
+        return currentSlots.get(id);
+    }
+
+    /**
+     * Get the amount of registered clients
+     * @return An integer representing the amount
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Call an action for every registered client
+     * @param action The {@link Consumer} called for each {@link SSC}
+     */
+    void forEach(Consumer<SSC> action) {
+        AtomicReferenceArray<SSC> currentSlots = slots;
+        int end = Math.min(nextId, currentSlots.length());
+        for(int i = 0; i < end; i++) {
+            SSC client = currentSlots.get(i);
+            if(client != null)
+                action.accept(client);
+        }
+    }
+
+    /**
+     * Get every registered client
+     * @return A {@link List} of {@link SSC}
+     */
+    List<SSC> getAll() {
+        List<SSC> result = new ArrayList<>(size);
+        forEach(result::add);
+        return result;
+    }
+}
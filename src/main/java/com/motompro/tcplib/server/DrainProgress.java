@@ -0,0 +1,79 @@
+package com.motompro.tcplib.server;
+
+/**
+ * This class represents the progress of a server drain. It is a snapshot, a new instance is created each time
+ * the progress changes.
+ */
+public class DrainProgress {
+
+    private final int total;
+    private final int disconnected;
+    private final int failed;
+    private final int forced;
+
+    /**
+     * @param total The amount of clients connected when the drain started
+     * @param disconnected The amount of clients which received the disconnect notice
+     * @param failed The amount of clients whose disconnect notice could not be sent
+     * @param forced The amount of clients whose connection was closed because the deadline was reached
+     */
+    public DrainProgress(int total, int disconnected, int failed, int forced) {
+        this.total = total;
+        this.disconnected = disconnected;
+        this.failed = failed;
+        this.forced = forced;
+    }
+
+    /**
+     * Get the amount of clients connected when the drain started
+     * @return An integer representing the amount
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the amount of clients which received the disconnect notice
+     * @return An integer representing the amount
+     */
+    public int getDisconnected() {
+        return disconnected;
+    }
+
+    /**
+     * Get the amount of clients whose disconnect notice could not be sent. Their connection is closed anyway.
+     * @return An integer representing the amount
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Get the amount of clients whose connection was closed because the deadline was reached
+     * @return An integer representing the amount
+     */
+    public int getForced() {
+        return forced;
+    }
+
+    /**
+     * Get the amount of clients which are still connected
+     * @return An integer representing the amount
+     */
+    public int getRemaining() {
+        return total - disconnected - failed - forced;
+    }
+
+    /**
+     * Get whether every client has been disconnected or not
+     * @return A {@link Boolean}, <code>true</code> if done, <code>false</code> otherwise
+     */
+    public boolean isComplete() {
+        return getRemaining() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DrainProgress{total=" + total + ", disconnected=" + disconnected + ", failed=" + failed + ", forced=" + forced + "}";
+    }
+}
@@ -24,9 +24,17 @@ public class Ping {
         futureTime.complete(System.currentTimeMillis() - startTime);
     }
 
+    /**
+     * This method fails the ping when it could not be sent
+     * @param throwable The {@link Throwable} which prevented the ping from being sent
+     */
+    public void fail(Throwable throwable) {
+        futureTime.completeExceptionally(throwable);
+    }
+
     /**
      * This method is used to get the elapsed time between the ping launch and the ping back.<br>
-     * The returned {@link CompletableFuture} is completed when the ping is back.
+     * The returned {@link CompletableFuture} is completed when the ping is back, or exceptionally if it could not be sent.
      * @return A {@link CompletableFuture} containing the elapsed time.
      */
     public CompletableFuture<Long> getTime() {
@@ -0,0 +1,72 @@
+package com.motompro.tcplib.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a bounded ring buffer of the last messages sent to a client during a session.<br>
+ * Every message gets a sequence number, starting at 1, so a resuming client can ask for the messages following
+ * the last one it received.
+ */
+class ReplayBuffer {
+
+    private final String[] messages;
+    // Sequence number of the last added message, 0 if none
+    private long lastSequence = 0;
+
+    /**
+     * @param capacity The maximum amount of messages kept by the buffer
+     */
+    ReplayBuffer(int capacity) {
+        this.messages = new String[capacity];
+    }
+
+    /**
+     * Add a message to the buffer, overwriting the oldest one if the buffer is full
+     * @param message The {@link String} message
+     * @return The sequence number of the message
+     */
+    synchronized long add(String message) {
+        lastSequence++;
+        messages[(int) ((lastSequence - 1) % messages.length)] = message;
+        return lastSequence;
+    }
+
+    /**
+     * Get the maximum amount of messages kept by the buffer
+     * @return An integer representing the amount
+     */
+    int getCapacity() {
+        return messages.length;
+    }
+
+    /**
+     * Get the sequence number of the last added message
+     * @return A long, 0 if no message has been added
+     */
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Check if every message following the passed sequence number is still in the buffer
+     * @param sequence The sequence number of the last message received by the client
+     * @return A boolean, <code>true</code> if no message is missing, <code>false</code> otherwise
+     */
+    synchronized boolean isAvailableSince(long sequence) {
+        return sequence >= lastSequence - messages.length && sequence <= lastSequence;
+    }
+
+    /**
+     * Get the buffered messages following the passed sequence number, in sending order
+     * @param sequence The sequence number of the last message received by the client
+     * @return A {@link List} of {@link String} messages, only containing the messages still in the buffer
+     */
+    synchronized List<String> getSince(long sequence) {
+        long first = Math.max(Math.max(sequence, 0), lastSequence - messages.length) + 1;
+        List<String> result = new ArrayList<>();
+        for(long i = first; i <= lastSequence; i++)
+            result.add(messages[(int) ((i - 1) % messages.length)]);
+        return result;
+    }
+}
@@ -1,7 +1,10 @@
 package com.motompro.tcplib.server;
 
-import java.io.IOException;
+import com.motompro.tcplib.cluster.Backplane;
+import com.motompro.tcplib.queue.Priority;
+
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -11,13 +14,24 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public class Room<SSC extends ServerSideClient> {
 
     protected final UUID uuid;
-    protected final Set<SSC> clients = new HashSet<>();
+    protected final Set<SSC> clients = ConcurrentHashMap.newKeySet();
     private final List<RoomListener<SSC>> roomListeners = new CopyOnWriteArrayList<>();
+    private volatile Backplane backplane;
+    private volatile RoomState<SSC> state;
 
     public Room() {
         this.uuid = UUID.randomUUID();
     }
 
+    /**
+     * Create an instance of {@link Room} with a specified {@link UUID}.<br>
+     * In a cluster, the rooms sharing the same {@link UUID} on different nodes form a single logical room.
+     * @param uuid The room's {@link UUID}
+     */
+    public Room(UUID uuid) {
+        this.uuid = uuid;
+    }
+
     /**
      * This method returns the {@link UUID} of this room
      * @return The {@link UUID} of this {@link Room}
@@ -57,6 +71,9 @@ public class Room<SSC extends ServerSideClient> {
     public void addClient(SSC client) {
         this.clients.add(client);
         client.setRoom(this);
+        RoomState<SSC> currentState = state;
+        if(currentState != null)
+            currentState.addMember(client);
     }
 
     /**
@@ -66,6 +83,9 @@ public class Room<SSC extends ServerSideClient> {
     public void addClients(Collection<SSC> collection) {
         this.clients.addAll(collection);
         collection.forEach(client -> client.setRoom(this));
+        RoomState<SSC> currentState = state;
+        if(currentState != null)
+            collection.forEach(currentState::addMember);
     }
 
     /**
@@ -75,6 +95,9 @@ public class Room<SSC extends ServerSideClient> {
     public void removeClient(SSC client) {
         this.clients.remove(client);
         client.setRoom(null);
+        RoomState<SSC> currentState = state;
+        if(currentState != null)
+            currentState.removeMember(client);
     }
 
     /**
@@ -84,6 +107,9 @@ public class Room<SSC extends ServerSideClient> {
     public void removeClients(Collection<SSC> collection) {
         this.clients.removeAll(collection);
         collection.forEach(client -> client.setRoom(null));
+        RoomState<SSC> currentState = state;
+        if(currentState != null)
+            collection.forEach(currentState::removeMember);
     }
 
     /**
@@ -120,17 +146,64 @@ public class Room<SSC extends ServerSideClient> {
     }
 
     /**
-     * Send a message to every client of this room excepted the clients passed in blacklist
+     * Send a message to every client of this room excepted the clients passed in blacklist.<br>
+     * If the room is registered in a clustered {@link Server}, the message is also sent to the room's clients
+     * connected to the other nodes. The blacklist only applies to the clients of this node.
      * @param blacklist A {@link Set} of {@link SSC} representing the excepted clients
      * @param message The {@link String} message
      */
     public void broadcast(Set<SSC> blacklist, String message) {
+        broadcastLocal(blacklist, message);
+        if(backplane != null)
+            backplane.publish(Server.ROOM_CHANNEL_PREFIX + uuid, message);
+    }
+
+    /**
+     * Send a message to every client of this room connected to this node, excepted the clients passed in blacklist
+     * @param blacklist A {@link Set} of {@link SSC} representing the excepted clients
+     * @param message The {@link String} message
+     */
+    public void broadcastLocal(Set<SSC> blacklist, String message) {
         clients.stream().filter(client -> !blacklist.contains(client)).forEach(client -> {
-            try {
-                client.sendMessage(message);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            client.send(message, Priority.NORMAL);
         });
     }
+
+    /**
+     * Get the keyed state of this room, creating it on the first call. Every client already in the room receives
+     * a full snapshot when the state is created.
+     * @return The {@link RoomState} of this room
+     */
+    public RoomState<SSC> getState() {
+        RoomState<SSC> currentState = state;
+        if(currentState != null)
+            return currentState;
+        synchronized(this) {
+            if(state == null) {
+                RoomState<SSC> newState = new RoomState<>(this);
+                clients.forEach(newState::addMember);
+                state = newState;
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Record the state tick acknowledged by a client of this room
+     * @param client The {@link SSC} which sent the acknowledgement
+     * @param tick The acknowledged tick
+     */
+    void acknowledgeState(SSC client, long tick) {
+        RoomState<SSC> currentState = state;
+        if(currentState != null)
+            currentState.acknowledge(client, tick);
+    }
+
+    /**
+     * Specify the backplane the room's messages are published on. It <strong>MUST NOT</strong> be used, use {@link Server#setBackplane(Backplane)} instead.
+     * @param backplane The {@link Backplane}, or <code>null</code> to stop publishing
+     */
+    protected void setBackplane(Backplane backplane) {
+        this.backplane = backplane;
+    }
 }
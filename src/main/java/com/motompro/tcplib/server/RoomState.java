@@ -0,0 +1,343 @@
+package com.motompro.tcplib.server;
+
+import com.motompro.tcplib.queue.Priority;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.*;
+
+/**
+ * This class represents a keyed state shared by the clients of a {@link Room}.<br>
+ * Changes are made with {@link #put(String, String)} and {@link #remove(String)}, and sent to the clients when
+ * {@link #tick()} is called. A client joining the room receives a full snapshot, then only the keys changed since
+ * the last tick it acknowledged. Clients which acknowledged the same tick share the same encoded delta, so a tick
+ * costs about the amount of changed keys instead of the state size times the amount of clients.<br>
+ * A client which does not acknowledge its updates fast enough is skipped until it catches up, and then receives
+ * every missed change in a single delta. A client skipped for too long receives a full snapshot instead, so a lost
+ * acknowledgement cannot stop its updates.<br>
+ * Messages are sent after releasing the state's lock, so a slow connection does not block the changes and the
+ * acknowledgements. Ticks and membership changes are serialized with their sends, so each client receives its
+ * messages in tick order.<br>
+ * The state is local to this node, it is not shared through the cluster backplane.
+ * @param <SSC> An object extending {@link ServerSideClient}
+ */
+public class RoomState<SSC extends ServerSideClient> {
+
+    public static final int DEFAULT_HISTORY_SIZE = 64;
+    public static final int DEFAULT_MAX_PENDING_TICKS = 4;
+    public static final int DEFAULT_MAX_SKIPPED_TICKS = 32;
+    // Base of a full snapshot message, replacing the whole state
+    public static final String FULL_SNAPSHOT = "full";
+    // Base of the message sent to a client leaving the room
+    public static final String LEAVE = "leave";
+
+    /**
+     * The keys changed during a tick
+     */
+    private static class Change {
+
+        private final long tick;
+        private final Set<String> keys;
+
+        private Change(long tick, Set<String> keys) {
+            this.tick = tick;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * The synchronization progress of a client
+     */
+    private static class Member {
+
+        // Last tick sent to the client
+        private long sent;
+        // Last tick the client acknowledged
+        private long acked;
+        // Ticks the client needed an update but was skipped because it did not acknowledge the previous ones
+        private int skipped = 0;
+
+        private Member(long tick) {
+            this.sent = tick;
+            this.acked = tick;
+        }
+    }
+
+    private final UUID roomUuid;
+    private final Map<String, String> values = new HashMap<>();
+    // Keys changed since the last tick
+    private Set<String> pendingKeys = new HashSet<>();
+    private final Deque<Change> history = new ArrayDeque<>();
+    private final Map<SSC, Member> members = new HashMap<>();
+    // Held while building and sending messages, so they are queued in the order they were built
+    private final Object sendLock = new Object();
+    private long tick = 0;
+    private long lastChangeTick = 0;
+    private int historySize = DEFAULT_HISTORY_SIZE;
+    private int maxPendingTicks = DEFAULT_MAX_PENDING_TICKS;
+    private int maxSkippedTicks = DEFAULT_MAX_SKIPPED_TICKS;
+
+    /**
+     * Create the state of a room. It <strong>MUST NOT</strong> be used, use {@link Room#getState()} instead.
+     * @param room The {@link Room} the state belongs to
+     */
+    protected RoomState(Room<SSC> room) {
+        this.roomUuid = room.getUuid();
+    }
+
+    /**
+     * Set a value. The change is sent to the clients on the next tick.
+     * @param key The {@link String} key, it must not be <code>null</code>
+     * @param value The {@link String} value, <code>null</code> removes the key
+     */
+    public synchronized void put(String key, String value) {
+        Objects.requireNonNull(key);
+        if(value == null) {
+            remove(key);
+            return;
+        }
+        if(value.equals(values.put(key, value)))
+            return;
+        pendingKeys.add(key);
+    }
+
+    /**
+     * Remove a value. The removal is sent to the clients on the next tick.
+     * @param key The {@link String} key
+     */
+    public synchronized void remove(String key) {
+        if(values.remove(key) != null)
+            pendingKeys.add(key);
+    }
+
+    /**
+     * Get a value
+     * @param key The {@link String} key
+     * @return An {@link Optional} containing the value
+     */
+    public synchronized Optional<String> get(String key) {
+        return Optional.ofNullable(values.get(key));
+    }
+
+    /**
+     * Get a copy of every value
+     * @return A {@link Map} of the values by key
+     */
+    public synchronized Map<String, String> getAll() {
+        return new HashMap<>(values);
+    }
+
+    /**
+     * Get the current tick
+     * @return A long, <code>0</code> before the first tick
+     */
+    public synchronized long getTick() {
+        return tick;
+    }
+
+    /**
+     * Set how many ticks of changes are kept to build deltas. A client whose last acknowledged tick is older
+     * receives a full snapshot.<br>
+     * This parameter is set at {@link #DEFAULT_HISTORY_SIZE} by default
+     * @param historySize The amount of ticks
+     */
+    public synchronized void setHistorySize(int historySize) {
+        if(historySize < 1)
+            throw new IllegalArgumentException("historySize must be positive");
+        this.historySize = historySize;
+        trimHistory();
+    }
+
+    /**
+     * Set how many ticks can be sent to a client without being acknowledged before it is skipped.<br>
+     * This parameter is set at {@link #DEFAULT_MAX_PENDING_TICKS} by default
+     * @param maxPendingTicks The amount of ticks
+     */
+    public synchronized void setMaxPendingTicks(int maxPendingTicks) {
+        if(maxPendingTicks < 1)
+            throw new IllegalArgumentException("maxPendingTicks must be positive");
+        this.maxPendingTicks = maxPendingTicks;
+    }
+
+    /**
+     * Set how many ticks a client can be skipped before it receives a full snapshot.<br>
+     * This parameter is set at {@link #DEFAULT_MAX_SKIPPED_TICKS} by default
+     * @param maxSkippedTicks The amount of ticks
+     */
+    public synchronized void setMaxSkippedTicks(int maxSkippedTicks) {
+        if(maxSkippedTicks < 1)
+            throw new IllegalArgumentException("maxSkippedTicks must be positive");
+        this.maxSkippedTicks = maxSkippedTicks;
+    }
+
+    /**
+     * Close the current tick and send the changes to the clients which need them.<br>
+     * Clients are grouped by last acknowledged tick and each group's delta is encoded once.
+     * @return The new tick
+     */
+    public long tick() {
+        synchronized(sendLock) {
+            return sendTick();
+        }
+    }
+
+    /**
+     * Close the current tick and send the changes. It is called while holding {@link #sendLock}.
+     * @return The new tick
+     */
+    private long sendTick() {
+        // Encoded messages with their recipients, sent once the lock is released
+        List<Map.Entry<String, List<SSC>>> messages = new ArrayList<>();
+        long newTick;
+        synchronized(this) {
+            newTick = ++tick;
+            if(!pendingKeys.isEmpty()) {
+                history.addLast(new Change(tick, pendingKeys));
+                pendingKeys = new HashSet<>();
+                lastChangeTick = tick;
+                trimHistory();
+            }
+            // Group the clients needing an update by acknowledged tick, the clients skipped for too long get a snapshot
+            Map<Long, List<SSC>> groups = new HashMap<>();
+            List<SSC> snapshotClients = new ArrayList<>();
+            members.forEach((client, member) -> {
+                if(member.sent >= lastChangeTick)
+                    return;
+                if(member.sent - member.acked < maxPendingTicks)
+                    groups.computeIfAbsent(member.acked, acked -> new ArrayList<>()).add(client);
+                else if(++member.skipped >= maxSkippedTicks)
+                    snapshotClients.add(client);
+            });
+            long oldestBase = history.isEmpty() ? tick : history.getFirst().tick - 1;
+            for(Map.Entry<Long, List<SSC>> group : groups.entrySet()) {
+                if(group.getKey() < oldestBase) {
+                    snapshotClients.addAll(group.getValue());
+                    continue;
+                }
+                messages.add(new AbstractMap.SimpleImmutableEntry<>(encodeDelta(group.getKey()), group.getValue()));
+                group.getValue().forEach(client -> {
+                    Member member = members.get(client);
+                    member.sent = tick;
+                    member.skipped = 0;
+                });
+            }
+            if(!snapshotClients.isEmpty()) {
+                messages.add(new AbstractMap.SimpleImmutableEntry<>(encodeSnapshot(), snapshotClients));
+                // Messages are delivered in order, so the snapshot is the base of the following deltas
+                snapshotClients.forEach(client -> members.put(client, new Member(tick)));
+            }
+        }
+        for(Map.Entry<String, List<SSC>> message : messages)
+            message.getValue().forEach(client -> client.send(message.getKey(), Priority.HIGH));
+        return newTick;
+    }
+
+    /**
+     * Add a client and send it a full snapshot. It <strong>MUST NOT</strong> be used, use {@link Room#addClient(ServerSideClient)} instead.
+     * @param client The {@link SSC} joining the room
+     */
+    protected void addMember(SSC client) {
+        synchronized(sendLock) {
+            String snapshot;
+            synchronized(this) {
+                // Messages are delivered in order, so the snapshot is the base of the following deltas
+                members.put(client, new Member(tick));
+                snapshot = encodeSnapshot();
+            }
+            client.send(snapshot, Priority.HIGH);
+        }
+    }
+
+    /**
+     * Remove a client and tell it to clear its state. It <strong>MUST NOT</strong> be used, use {@link Room#removeClient(ServerSideClient)} instead.
+     * @param client The {@link SSC} leaving the room
+     */
+    protected void removeMember(SSC client) {
+        synchronized(sendLock) {
+            String leave;
+            synchronized(this) {
+                if(members.remove(client) == null)
+                    return;
+                leave = header(LEAVE).toString();
+            }
+            client.send(leave, Priority.HIGH);
+        }
+    }
+
+    /**
+     * Record the tick acknowledged by a client
+     * @param client The {@link SSC} which sent the acknowledgement
+     * @param ackedTick The acknowledged tick
+     */
+    synchronized void acknowledge(SSC client, long ackedTick) {
+        Member member = members.get(client);
+        if(member != null && ackedTick > member.acked && ackedTick <= member.sent)
+            member.acked = ackedTick;
+    }
+
+    /**
+     * Drop the changes which are too old to be used as a delta base
+     */
+    private void trimHistory() {
+        while(history.size() > historySize)
+            history.removeFirst();
+    }
+
+    /**
+     * Encode the full state
+     * @return The {@link String} message
+     */
+    private String encodeSnapshot() {
+        StringBuilder message = header(FULL_SNAPSHOT);
+        values.forEach((key, value) -> message.append(' ').append(encode(key)).append('=').append(encode(value)));
+        return message.toString();
+    }
+
+    /**
+     * Encode the keys changed after a tick, with their current value, or without value if they were removed
+     * @param base The tick the delta starts from
+     * @return The {@link String} message
+     */
+    private String encodeDelta(long base) {
+        Set<String> keys = new HashSet<>();
+        // The history is ordered, so only the most recent changes are iterated
+        Iterator<Change> changes = history.descendingIterator();
+        while(changes.hasNext()) {
+            Change change = changes.next();
+            if(change.tick <= base)
+                break;
+            keys.addAll(change.keys);
+        }
+        StringBuilder message = header(Long.toString(base));
+        for(String key : keys) {
+            message.append(' ').append(encode(key));
+            String value = values.get(key);
+            if(value != null)
+                message.append('=').append(encode(value));
+        }
+        return message.toString();
+    }
+
+    /**
+     * Start a state message
+     * @param base The base of the message, a tick, {@link #FULL_SNAPSHOT} or {@link #LEAVE}
+     * @return A {@link StringBuilder} containing the message header
+     */
+    private StringBuilder header(String base) {
+        return new StringBuilder(Server.INTERNAL_MESSAGE_PREFIX).append(' ').append(Server.STATE_MESSAGE)
+                .append(' ').append(roomUuid).append(' ').append(tick).append(' ').append(base);
+    }
+
+    /**
+     * Encode a key or a value so it contains neither spaces, line breaks nor '=' characters
+     * @param text The {@link String} to encode
+     * @return The encoded {@link String}
+     */
+    private static String encode(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,13 +1,21 @@
 package com.motompro.tcplib.server;
 
+import com.motompro.tcplib.capture.TrafficCapture;
+import com.motompro.tcplib.cluster.Backplane;
+import com.motompro.tcplib.cluster.BackplaneListener;
+import com.motompro.tcplib.queue.Priority;
+import com.motompro.tcplib.queue.QueueMetrics;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * This class represents a TCP server. It handles client connection and communication.
@@ -19,13 +27,35 @@ public abstract class Server<SSC extends ServerSideClient> {
     public static final String INTERNAL_MESSAGE_PREFIX = "&internal&";
     public static final String DISCONNECT_MESSAGE = "disconnect";
     public static final String PING_MESSAGE = "ping";
+    public static final String SESSION_MESSAGE = "session";
+    public static final String RESUME_MESSAGE = "resume";
+    public static final String RESUMED_MESSAGE = "resumed";
+    public static final String STATE_MESSAGE = "state";
+    public static final String ACK_MESSAGE = "ack";
+    public static final int DEFAULT_REPLAY_BUFFER_SIZE = 1024;
+    // Maximum time (in millisecond) a new client has to send its session or resume request
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+    public static final long DEFAULT_DRAIN_TIMEOUT = 10000;
+    // Amount of threads sending the disconnect notices during a drain
+    private static final int DRAIN_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 4);
+    // Backplane channels used to broadcast messages across the nodes of a cluster
+    public static final String SERVER_CHANNEL = "server";
+    public static final String ROOM_CHANNEL_PREFIX = "room:";
 
     private final ServerSocket serverSocket;
-    private final Map<UUID, SSC> clients = new HashMap<>();
+    private final ClientRegistry<SSC> clients = new ClientRegistry<>();
     private final List<ClientListener<SSC>> clientListeners = new CopyOnWriteArrayList<>();
-    private final Map<UUID, Room<SSC>> rooms = new HashMap<>();
-    private boolean allowConnection = true;
-    private final Map<UUID, Ping> pings = new HashMap<>();
+    private final Map<UUID, Room<SSC>> rooms = new ConcurrentHashMap<>();
+    private volatile boolean allowConnection = true;
+    // Set once a drain started, the connections still in their handshake are refused instead of registered
+    private boolean draining = false;
+    private final BackplaneListener backplaneListener = this::onBackplaneMessage;
+    private volatile Backplane backplane;
+    private final Map<String, SSC> sessions = new ConcurrentHashMap<>();
+    private long sessionTimeout = 0;
+    private int replayBufferSize = DEFAULT_REPLAY_BUFFER_SIZE;
+    private ScheduledExecutorService sessionExecutor;
+    private volatile TrafficCapture trafficCapture;
 
     /**
      * Create an instance of {@link Server} which will listen to an unknown free port
@@ -55,11 +85,23 @@ public abstract class Server<SSC extends ServerSideClient> {
     }
 
     /**
-     * Get the clients connected to this server
+     * Get the clients connected to this server.<br>
+     * The returned {@link Map} is a snapshot built on each call, use {@link #getClient(int)} for frequent lookups.
      * @return A {@link Map} with client's {@link UUID} as key and {@link SSC} associated to the clients as value
      */
     public Map<UUID, SSC> getClients() {
-        return clients;
+        Map<UUID, SSC> result = new HashMap<>();
+        clients.forEach(client -> result.put(client.getUuid(), client));
+        return result;
+    }
+
+    /**
+     * Get a connected client by its connection id
+     * @param id The connection id of the client, see {@link ServerSideClient#getId()}
+     * @return An {@link Optional} containing the {@link SSC} associated with the client
+     */
+    public Optional<SSC> getClient(int id) {
+        return Optional.ofNullable(clients.get(id));
     }
 
     /**
@@ -95,20 +137,123 @@ public abstract class Server<SSC extends ServerSideClient> {
     }
 
     /**
-     * This method kick all connected clients and then close server connection
+     * This method kick all connected clients and then close server connection.<br>
+     * It drains the server with a deadline of {@link #DEFAULT_DRAIN_TIMEOUT} and waits for the drain to end.
      * @throws IOException
      */
     public void close() throws IOException {
-        // Properly kick all connected clients
-        clients.values().forEach(client -> {
+        drain(DEFAULT_DRAIN_TIMEOUT).join();
+    }
+
+    /**
+     * Drain the server. It stops accepting connections, waits for the outbound queues to be written, sends the
+     * disconnect notice to every client in parallel, and closes the connections which are still opened when the
+     * deadline is reached.
+     * @param timeout The deadline in millisecond
+     * @return A {@link CompletableFuture} containing the final {@link DrainProgress}, it is completed when every client is disconnected
+     */
+    public CompletableFuture<DrainProgress> drain(long timeout) {
+        return drain(timeout, progress -> {});
+    }
+
+    /**
+     * Drain the server. It stops accepting connections, waits for the outbound queues to be written, sends the
+     * disconnect notice to every client in parallel, and closes the connections which are still opened when the
+     * deadline is reached.
+     * @param timeout The deadline in millisecond
+     * @param progressListener A {@link Consumer} called with the {@link DrainProgress} each time a client is disconnected,
+     *                         it is called from the drain threads or from the threads writing the disconnect notices
+     * @return A {@link CompletableFuture} containing the final {@link DrainProgress}, it is completed when every client is disconnected
+     */
+    public CompletableFuture<DrainProgress> drain(long timeout, Consumer<DrainProgress> progressListener) {
+        // Stop accepting connections
+        allowConnection = false;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {}
+        // Lost connections must not wait for a resume anymore
+        sessions.clear();
+        List<SSC> drainedClients;
+        // Connections registering from now on are refused, so every registered client is drained
+        synchronized(this) {
+            draining = true;
+            if(sessionExecutor != null)
+                sessionExecutor.shutdownNow();
+            drainedClients = clients.getAll();
+        }
+        Set<SSC> remainingClients = ConcurrentHashMap.newKeySet();
+        remainingClients.addAll(drainedClients);
+        int total = drainedClients.size();
+        AtomicInteger disconnected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CompletableFuture<DrainProgress> result = new CompletableFuture<>();
+        if(total == 0) {
+            DrainProgress progress = new DrainProgress(0, 0, 0, 0);
+            progressListener.accept(progress);
+            result.complete(progress);
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(total, DRAIN_PARALLELISM), runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Send the disconnect notices in parallel, a failure does not stop the other clients from being kicked
+        long deadline = System.currentTimeMillis() + timeout;
+        CountDownLatch settled = new CountDownLatch(total);
+        drainedClients.forEach(client -> executor.execute(() -> {
+            boolean suspended = client.isSuspended();
+            // Let the queued messages go out before the disconnect notice
+            if(!suspended)
+                client.awaitOutbound(Math.max(0, deadline - System.currentTimeMillis()));
+            CompletableFuture<Void> notice;
             try {
-                client.kick();
+                notice = client.kick();
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                notice = new CompletableFuture<>();
+                notice.completeExceptionally(e);
             }
-        });
-        // Close socket
-        serverSocket.close();
+            // The client is counted once its notice is written or failed
+            notice.whenComplete((ignored, throwable) -> {
+                // The deadline was reached and the client has already been counted as forced
+                if(!remainingClients.remove(client))
+                    return;
+                if(throwable == null) {
+                    disconnected.incrementAndGet();
+                } else {
+                    forceClose(client);
+                    failed.incrementAndGet();
+                }
+                // A suspended client has no input thread left to notice the disconnection
+                if(suspended)
+                    disconnectClient(client);
+                progressListener.accept(new DrainProgress(total, disconnected.get(), failed.get(), 0));
+                settled.countDown();
+            });
+        }));
+        executor.shutdown();
+        // Wait for the drain to end and force the remaining connections to close once the deadline is reached
+        new Thread(() -> {
+            boolean terminated = false;
+            try {
+                terminated = settled.await(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {}
+            executor.shutdownNow();
+            int forced = 0;
+            if(!terminated) {
+                for(SSC client : remainingClients) {
+                    if(!remainingClients.remove(client))
+                        continue;
+                    forceClose(client);
+                    forced++;
+                }
+            }
+            DrainProgress progress = new DrainProgress(total, disconnected.get(), failed.get(), forced);
+            if(forced > 0)
+                progressListener.accept(progress);
+            result.complete(progress);
+        }).start();
+        return result;
     }
 
     /**
@@ -122,12 +267,16 @@ public abstract class Server<SSC extends ServerSideClient> {
     /**
      * Kick a client from the server
      * @param client The {@link SSC} which will be kicked
+     * @return A {@link CompletableFuture} completed when the disconnect notice is written,
+     *         or exceptionally with the {@link IOException} which prevented it from being written
      * @throws IOException
      */
-    public void kick(SSC client) throws IOException {
-        client.kick();
-        clients.remove(client.getUuid());
-        rooms.values().stream().filter(room -> room.isInside(client)).findFirst().ifPresent(room -> room.removeClient(client));
+    public CompletableFuture<Void> kick(SSC client) throws IOException {
+        endSession(client);
+        CompletableFuture<Void> result = client.kick();
+        unregisterClient(client);
+        getRoom(client).ifPresent(room -> room.removeClient(client));
+        return result;
     }
 
     /**
@@ -136,6 +285,7 @@ public abstract class Server<SSC extends ServerSideClient> {
      */
     public void addRoom(Room<SSC> room) {
         rooms.put(room.getUuid(), room);
+        room.setBackplane(backplane);
     }
 
     /**
@@ -144,6 +294,7 @@ public abstract class Server<SSC extends ServerSideClient> {
      */
     public void removeRoom(Room<SSC> room) {
         room.getClients().forEach(client -> client.setRoom(null));
+        room.setBackplane(null);
         rooms.remove(room.getUuid());
     }
 
@@ -173,6 +324,43 @@ public abstract class Server<SSC extends ServerSideClient> {
         return allowConnection;
     }
 
+    /**
+     * Set how long (in millisecond) a client which lost its connection can resume its session.<br>
+     * While the session can be resumed, the client keeps its {@link UUID} and its room, and the messages sent to it
+     * are buffered to be replayed on resume. This parameter is set at <code>0</code> by default, which disables sessions.
+     * @param sessionTimeout The delay in millisecond, <code>0</code> to disable sessions
+     */
+    public void setSessionTimeout(long sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * Get how long (in millisecond) a client which lost its connection can resume its session
+     * @return A long, <code>0</code> if sessions are disabled
+     */
+    public long getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Set the maximum amount of messages kept per session to be replayed on resume.<br>
+     * This parameter is set at {@link #DEFAULT_REPLAY_BUFFER_SIZE} by default and only applies to new sessions
+     * @param replayBufferSize The amount of messages
+     */
+    public void setReplayBufferSize(int replayBufferSize) {
+        if(replayBufferSize < 1)
+            throw new IllegalArgumentException("replayBufferSize must be at least 1");
+        this.replayBufferSize = replayBufferSize;
+    }
+
+    /**
+     * Get the maximum amount of messages kept per session to be replayed on resume
+     * @return An integer representing the amount
+     */
+    public int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
     /**
      * Send a message to every connected client
      * @param message The {@link String} message
@@ -182,36 +370,103 @@ public abstract class Server<SSC extends ServerSideClient> {
     }
 
     /**
-     * Send a message to every client of the server excepted the clients passed in blacklist
+     * Send a message to every client of the server excepted the clients passed in blacklist.<br>
+     * If a {@link Backplane} is registered, the message is also sent to the clients connected to the other nodes
+     * of the cluster. The blacklist only applies to the clients of this node.
      * @param blacklist A {@link Set} of {@link SSC} representing the excepted clients
      * @param message The {@link String} message
      */
     public void broadcast(Set<SSC> blacklist, String message) {
-        clients.values().stream().filter(client -> !blacklist.contains(client)).forEach(client -> {
-            try {
-                client.sendMessage(message);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+        broadcastLocal(blacklist, message);
+        if(backplane != null)
+            backplane.publish(SERVER_CHANNEL, message);
+    }
+
+    /**
+     * Send a message to every client connected to this node excepted the clients passed in blacklist
+     * @param blacklist A {@link Set} of {@link SSC} representing the excepted clients
+     * @param message The {@link String} message
+     */
+    public void broadcastLocal(Set<SSC> blacklist, String message) {
+        clients.forEach(client -> {
+            if(blacklist.contains(client))
+                return;
+            client.send(message, Priority.NORMAL);
         });
     }
 
+    /**
+     * Get the metrics of one of the outbound queues' lanes, summed over every connected client
+     * @param priority The {@link Priority} of the lane
+     * @return The {@link QueueMetrics} of the lane, its max depth being the highest of all clients
+     */
+    public QueueMetrics getOutboundMetrics(Priority priority) {
+        QueueMetrics total = new QueueMetrics(0, 0, 0, 0, 0);
+        for(SSC client : clients.getAll())
+            total = total.add(client.getOutboundMetrics(priority));
+        return total;
+    }
+
+    /**
+     * Make this server a node of a cluster. Once set, {@link #broadcast(Set, String)} and the broadcasts of the
+     * registered rooms reach the clients connected to the other nodes of the cluster.<br>
+     * The backplane is not closed when the server is closed.
+     * @param backplane The {@link Backplane} linking the nodes, or <code>null</code> to leave the cluster
+     */
+    public void setBackplane(Backplane backplane) {
+        if(this.backplane != null)
+            this.backplane.removeBackplaneListener(backplaneListener);
+        this.backplane = backplane;
+        if(backplane != null)
+            backplane.addBackplaneListener(backplaneListener);
+        rooms.values().forEach(room -> room.setBackplane(backplane));
+    }
+
+    /**
+     * Get the backplane linking this server to the other nodes of the cluster
+     * @return An {@link Optional} containing the {@link Backplane}
+     */
+    public Optional<Backplane> getBackplane() {
+        return Optional.ofNullable(backplane);
+    }
+
+    /**
+     * Record the traffic of this server. Every connection, disconnection, and message received from or sent to a
+     * client is written to the capture, it can then be played back with a {@link com.motompro.tcplib.capture.ReplayDriver}.<br>
+     * The capture is not closed when the server is closed.
+     * @param trafficCapture The {@link TrafficCapture}, or <code>null</code> to stop recording
+     */
+    public void setTrafficCapture(TrafficCapture trafficCapture) {
+        this.trafficCapture = trafficCapture;
+        clients.forEach(client -> client.setTrafficCapture(trafficCapture));
+    }
+
+    /**
+     * Get the capture recording the traffic of this server
+     * @return An {@link Optional} containing the {@link TrafficCapture}
+     */
+    public Optional<TrafficCapture> getTrafficCapture() {
+        return Optional.ofNullable(trafficCapture);
+    }
+
     /**
      * Get the delay (in millisecond) of a client.
      * @param client The {@link SSC} we want to check
-     * @return A {@link CompletableFuture} containing the delay, it is completed when the ping is back to the server
+     * @return A {@link CompletableFuture} containing the delay, it is completed when the ping is back to the server,
+     *         or exceptionally if the ping could not be sent
      */
     public CompletableFuture<Long> getPing(SSC client) {
         Ping ping = new Ping();
-        pings.put(client.getUuid(), ping);
+        client.setPendingPing(ping);
         ping.start();
-        try {
-            client.ping();
-            return ping.getTime();
-        } catch (IOException e) {
-            pings.remove(client.getUuid());
-            throw new RuntimeException(e);
-        }
+        client.ping().whenComplete((result, throwable) -> {
+            // The ping could not be written, no answer will come
+            if(throwable != null) {
+                client.clearPendingPing(ping);
+                ping.fail(throwable);
+            }
+        });
+        return ping.getTime();
     }
 
     /**
@@ -221,9 +476,6 @@ public abstract class Server<SSC extends ServerSideClient> {
         new Thread(() -> {
             // Accept new connections while the server is opened
             while(!serverSocket.isClosed()) {
-                // Do not accept connection if the server does not allow it
-                if(!allowConnection)
-                    continue;
                 try {
                     // Create the new connected client socket
                     Socket socket = serverSocket.accept();
@@ -232,19 +484,14 @@ public abstract class Server<SSC extends ServerSideClient> {
                     // Close new client's socket if the server does not allow connections
                     if(!allowConnection) {
                         socket.close();
-                        return;
+                        continue;
                     }
-                    // Generate a random UUID for the client
-                    UUID uuid = UUID.randomUUID();
-                    // Instantiate the client object
-                    ServerSideClient client = new ServerSideClient(uuid, socket);
-                    // Generate the generic type associated with the client
-                    SSC generatedClient = generateClient(client);
-                    clients.put(uuid, generatedClient);
-                    clientListeners.forEach(clientListener -> clientListener.onClientConnect(generatedClient));
-                    // Start client's input connection thread
-                    startClientInputThread(generatedClient, socket);
+                    // Start client's input connection thread, the client is registered by this thread
+                    startClientInputThread(socket);
                 } catch (IOException e) {
+                    // The server socket has been closed
+                    if(serverSocket.isClosed())
+                        break;
                     throw new RuntimeException(e);
                 }
             }
@@ -253,10 +500,9 @@ public abstract class Server<SSC extends ServerSideClient> {
 
     /**
      * The client commuinication thread
-     * @param client The {@link SSC} object associated with the client
      * @param socket The client's {@link Socket}
      */
-    private void startClientInputThread(SSC client, Socket socket) {
+    private void startClientInputThread(Socket socket) {
         new Thread(() -> {
             // Create client's buffered input stream
             BufferedReader input;
@@ -265,16 +511,67 @@ public abstract class Server<SSC extends ServerSideClient> {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+            // Wait for a session or resume request before registering the client if sessions are enabled
+            String pendingMessage = null;
+            if(sessionTimeout > 0) {
+                try {
+                    socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+                    pendingMessage = input.readLine();
+                    socket.setSoTimeout(0);
+                    // The client left before sending anything
+                    if(pendingMessage == null) {
+                        socket.close();
+                        return;
+                    }
+                } catch (SocketTimeoutException ignored) {
+                    try {
+                        socket.setSoTimeout(0);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                } catch (IOException e) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {}
+                    return;
+                }
+            }
+            SSC client = null;
+            boolean sessionRequested = false;
+            if(pendingMessage != null) {
+                String[] splitMessage = pendingMessage.split(" ");
+                if(splitMessage[0].equals(INTERNAL_MESSAGE_PREFIX) && splitMessage.length > 1) {
+                    // Resume message
+                    if(splitMessage[1].equals(RESUME_MESSAGE) && splitMessage.length > 3)
+                        client = resumeClient(splitMessage[2], splitMessage[3], socket);
+                    sessionRequested = splitMessage[1].equals(SESSION_MESSAGE) || splitMessage[1].equals(RESUME_MESSAGE);
+                    if(sessionRequested)
+                        pendingMessage = null;
+                }
+            }
+            // Register the client if it did not resume a session
+            if(client == null)
+                client = registerClient(socket, sessionRequested);
+            // The server is draining, the connection has been closed
+            if(client == null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {}
+                return;
+            }
             // Get input messages while the client is connected
             while(!socket.isClosed()) {
-                String completeMessage = null;
+                String completeMessage = pendingMessage;
+                pendingMessage = null;
                 // Read incoming client's message
-                try {
-                    completeMessage = input.readLine();
-                } catch (IOException ignored) {}
+                if(completeMessage == null) {
+                    try {
+                        completeMessage = input.readLine();
+                    } catch (IOException ignored) {}
+                }
                 // Check if the message is null, a null message from the client represents a disconnection
                 if(completeMessage == null) {
-                    disconnectClient(client);
+                    connectionLost(client, socket);
                     break;
                 }
                 // Split message
@@ -283,27 +580,35 @@ public abstract class Server<SSC extends ServerSideClient> {
                 if(splitMessage[0].equals(INTERNAL_MESSAGE_PREFIX) && splitMessage.length > 1) {
                     String message = splitMessage[1];
                     // Ping message
-                    if(message.equals(PING_MESSAGE) && pings.containsKey(client.getUuid())) {
-                        pings.get(client.getUuid()).complete();
-                        pings.remove(client.getUuid());
+                    if(message.equals(PING_MESSAGE)) {
+                        Ping ping = client.takePendingPing();
+                        if(ping != null)
+                            ping.complete();
                     }
                     // Disconnect message
                     if(message.equals(DISCONNECT_MESSAGE)) {
+                        endSession(client);
+                        // The client is gone, it must be unregistered even if its connection does not close cleanly
                         try {
                             client.close();
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
+                        } catch (IOException ignored) {}
                         disconnectClient(client);
                         break;
                     }
+                    // Acknowledgement of a room state update
+                    if(message.equals(ACK_MESSAGE) && splitMessage.length > 3)
+                        acknowledgeState(client, splitMessage[2], splitMessage[3]);
                     continue;
                 }
                 String finalMessage = completeMessage;
+                SSC finalClient = client;
+                TrafficCapture capture = trafficCapture;
+                if(capture != null)
+                    capture.recordInbound(client.getId(), finalMessage);
                 // Call client message method
-                clientListeners.forEach(clientListener -> clientListener.onClientMessage(client, finalMessage));
-                client.getRoom().ifPresent(room -> {
-                    ((Room<SSC>) room).getRoomListeners().forEach(roomListener -> roomListener.onClientMessage(client, finalMessage));
+                clientListeners.forEach(clientListener -> clientListener.onClientMessage(finalClient, finalMessage));
+                getRoom(client).ifPresent(room -> {
+                    room.getRoomListeners().forEach(roomListener -> roomListener.onClientMessage(finalClient, finalMessage));
                 });
             }
             // Close IO streams
@@ -313,20 +618,214 @@ public abstract class Server<SSC extends ServerSideClient> {
         }).start();
     }
 
+    /**
+     * Create and register the {@link SSC} object of a newly connected client
+     * @param socket The client's {@link Socket}
+     * @param sessionRequested Whether the client asked for a session or not
+     * @return The generated {@link SSC} associated with the client, <code>null</code> if the server is draining
+     */
+    private SSC registerClient(Socket socket, boolean sessionRequested) {
+        // Generate a random UUID for the client
+        UUID uuid = UUID.randomUUID();
+        SSC generatedClient;
+        try {
+            // Instantiate the client object
+            ServerSideClient client = new ServerSideClient(uuid, socket);
+            // Generate the generic type associated with the client
+            generatedClient = generateClient(client);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Open the session before anything is sent to the client so every message can be replayed
+        if(sessionRequested && sessionTimeout > 0) {
+            String sessionToken = UUID.randomUUID().toString();
+            // The session is known before its token is sent, so an immediate resume finds it
+            sessions.put(sessionToken, generatedClient);
+            generatedClient.startSession(sessionToken, replayBufferSize);
+        }
+        // A drain only kicks the clients registered when it started, so the later ones are refused
+        synchronized(this) {
+            if(draining) {
+                String sessionToken = generatedClient.getSessionToken();
+                if(sessionToken != null)
+                    sessions.remove(sessionToken, generatedClient);
+                forceClose(generatedClient);
+                return null;
+            }
+            clients.register(generatedClient);
+        }
+        TrafficCapture capture = trafficCapture;
+        generatedClient.setTrafficCapture(capture);
+        if(capture != null)
+            capture.recordConnect(generatedClient.getId());
+        clientListeners.forEach(clientListener -> clientListener.onClientConnect(generatedClient));
+        return generatedClient;
+    }
+
+    /**
+     * Attach a new connection to the client owning a session
+     * @param sessionToken The {@link String} token of the session
+     * @param lastSequence The {@link String} sequence number of the last message received by the client
+     * @param socket The new {@link Socket} of the client
+     * @return The {@link SSC} associated with the session, <code>null</code> if the session does not exist or cannot be resumed
+     */
+    private SSC resumeClient(String sessionToken, String lastSequence, Socket socket) {
+        SSC client = sessions.get(sessionToken);
+        if(client == null)
+            return null;
+        long sequence;
+        try {
+            sequence = Long.parseLong(lastSequence);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        try {
+            if(!client.resume(socket, sequence))
+                return null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        clientListeners.forEach(clientListener -> clientListener.onClientResume(client));
+        return client;
+    }
+
+    /**
+     * Get the room of a client. A client can only be added to a room of its own type, so the cast is safe.
+     * @param client The {@link SSC} object associated with the client
+     * @return An {@link Optional} containing the client's {@link Room}
+     */
+    @SuppressWarnings("unchecked")
+    private Optional<Room<SSC>> getRoom(SSC client) {
+        return client.getRoom().map(room -> (Room<SSC>) room);
+    }
+
+    /**
+     * Pass a state acknowledgement to the client's room, ignoring it if the client changed room meanwhile
+     * @param client The {@link SSC} object associated with the client
+     * @param roomUuid The {@link UUID} of the acknowledged room, as a {@link String}
+     * @param tick The acknowledged tick, as a {@link String}
+     */
+    private void acknowledgeState(SSC client, String roomUuid, String tick) {
+        getRoom(client).ifPresent(room -> {
+            if(!room.getUuid().toString().equals(roomUuid))
+                return;
+            try {
+                room.acknowledgeState(client, Long.parseLong(tick));
+            } catch (NumberFormatException ignored) {}
+        });
+    }
+
+    /**
+     * Handle the loss of a client's connection. If the client owns a session, it is kept until the session
+     * times out so the client can resume it, otherwise the client is disconnected.
+     * @param client The {@link SSC} object associated with the client
+     * @param socket The {@link Socket} which has been lost
+     */
+    private void connectionLost(SSC client, Socket socket) {
+        // The client already resumed its session on another connection
+        if(client.getSocket() != socket)
+            return;
+        String sessionToken = client.getSessionToken();
+        if(sessionToken == null || sessions.get(sessionToken) != client || isClosed()) {
+            disconnectClient(client);
+            return;
+        }
+        // The check is done again atomically, the client may be resuming on another connection right now
+        if(!client.suspendIfCurrent(socket))
+            return;
+        getSessionExecutor().schedule(() -> {
+            // Disconnect the client if it did not resume its session in time
+            if(client.expireIfSuspended(socket)) {
+                sessions.remove(sessionToken, client);
+                disconnectClient(client);
+            }
+        }, sessionTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close the session of a client, if any, so it cannot be resumed anymore
+     * @param client The {@link SSC} object associated with the client
+     */
+    private void endSession(SSC client) {
+        String sessionToken = client.getSessionToken();
+        if(sessionToken != null)
+            sessions.remove(sessionToken, client);
+    }
+
+    /**
+     * Remove a client from the registered clients and record its disconnection
+     * @param client The {@link SSC} object associated with the client
+     */
+    private void unregisterClient(SSC client) {
+        TrafficCapture capture = trafficCapture;
+        int id = client.getId();
+        if(clients.unregister(client) && capture != null)
+            capture.recordDisconnect(id);
+    }
+
+    /**
+     * Close a client's connection without notifying it
+     * @param client The {@link SSC} object associated with the client
+     */
+    private void forceClose(SSC client) {
+        try {
+            client.getSocket().close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Get the executor used to time out the sessions, creating it if needed
+     * @return The {@link ScheduledExecutorService}
+     */
+    private synchronized ScheduledExecutorService getSessionExecutor() {
+        if(sessionExecutor == null) {
+            sessionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sessionExecutor;
+    }
+
     /**
      * This method properly closes client connection
      * @param client The {@link SSC} object associated with the client
      */
     private void disconnectClient(SSC client) {
+        endSession(client);
         // Call client disconnected method
         clientListeners.forEach(clientListener -> clientListener.onClientDisconnect(client));
-        clients.remove(client.getUuid());
-        rooms.values().stream().filter(room -> room.isInside(client)).findFirst().ifPresent(room -> {
+        unregisterClient(client);
+        getRoom(client).ifPresent(room -> {
             room.removeClient(client);
             room.getRoomListeners().forEach(roomListener -> roomListener.onClientDisconnect(client));
         });
     }
 
+    /**
+     * Deliver a message published by another node of the cluster to the clients of this node
+     * @param channel The {@link String} channel the message was published on
+     * @param message The {@link String} message
+     */
+    private void onBackplaneMessage(String channel, String message) {
+        if(channel.equals(SERVER_CHANNEL)) {
+            broadcastLocal(Collections.emptySet(), message);
+            return;
+        }
+        if(!channel.startsWith(ROOM_CHANNEL_PREFIX))
+            return;
+        UUID roomUuid;
+        try {
+            roomUuid = UUID.fromString(channel.substring(ROOM_CHANNEL_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        Room<SSC> room = rooms.get(roomUuid);
+        if(room != null)
+            room.broadcastLocal(Collections.emptySet(), message);
+    }
+
     /**
      * Generate the {@link SSC} object when a new client just connected
      * @param client The {@link ServerSideClient} object associated with the newly connected client
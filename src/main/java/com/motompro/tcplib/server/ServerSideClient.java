@@ -1,9 +1,16 @@
 package com.motompro.tcplib.server;
 
+import com.motompro.tcplib.capture.TrafficCapture;
+import com.motompro.tcplib.queue.OutboundQueue;
+import com.motompro.tcplib.queue.Priority;
+import com.motompro.tcplib.queue.QueueMetrics;
+
 import java.io.*;
 import java.net.Socket;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class represents a client containing every server-side needed data and methods
@@ -11,9 +18,18 @@ import java.util.UUID;
 public class ServerSideClient {
 
     protected final UUID uuid;
-    protected final Socket socket;
-    private final PrintWriter output;
+    private volatile int id = -1;
+    protected volatile Socket socket;
+    private volatile BufferedWriter output;
+    private final OutboundQueue outbound;
     protected Room room;
+    private String sessionToken;
+    private volatile ReplayBuffer replayBuffer;
+    private boolean suspended = false;
+    // The session timed out while suspended, it cannot be resumed anymore
+    private boolean expired = false;
+    private volatile Ping pendingPing;
+    private volatile TrafficCapture trafficCapture;
 
     /**
      * Create an instance of {@link ServerSideClient} with a specified {@link UUID} and the client's {@link Socket}
@@ -24,7 +40,23 @@ public class ServerSideClient {
     protected ServerSideClient(UUID uuid, Socket socket) throws IOException {
         this.uuid = uuid;
         this.socket = socket;
-        this.output = new PrintWriter(socket.getOutputStream());
+        this.output = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        this.outbound = new OutboundQueue(new OutboundQueue.Sink() {
+            @Override
+            public void write(String message, Priority priority) throws IOException {
+                writeOutput(message, priority);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                output.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                ServerSideClient.this.close();
+            }
+        });
     }
 
     /**
@@ -35,6 +67,23 @@ public class ServerSideClient {
         return uuid;
     }
 
+    /**
+     * This method returns the connection id of this client. Ids are small integers given by the server, the id of a
+     * disconnected client is reused for the next connecting client, so it must not be kept after a disconnection.
+     * @return An integer representing the id, <code>-1</code> if the client is not registered in a server
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Specify the client's connection id. It <strong>MUST NOT</strong> be used, the id is given by the {@link Server}.
+     * @param id The connection id
+     */
+    void setId(int id) {
+        this.id = id;
+    }
+
     /**
      * This method returns the socket of this client
      * @return The {@link Socket} of this {@link ServerSideClient}
@@ -76,40 +125,254 @@ public class ServerSideClient {
     }
 
     /**
-     * Send a message to the client
+     * Get whether the connection of this client is lost and waiting to be resumed or not
+     * @return A {@link Boolean}, <code>true</code> if waiting, <code>false</code> otherwise
+     */
+    public synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Send a message to the client with the {@link Priority#NORMAL} priority. It can be called from any thread.
      * @param message The {@link String} message
-     * @throws IOException
+     * @throws IOException If the connection is closed
      */
     public void sendMessage(String message) throws IOException {
-        output.println(message);
-        output.flush();
+        sendMessage(message, Priority.NORMAL);
+    }
+
+    /**
+     * Send a message to the client. Messages with a higher priority are written before the queued messages with a
+     * lower priority.<br>
+     * If the client has a session, the message is kept in its replay buffer once written. Messages sent while the
+     * connection is suspended stay queued and will be delivered when the client resumes its session, up to the
+     * replay buffer size, the oldest ones being dropped beyond.
+     * It can be called from any thread.
+     * @param message The {@link String} message
+     * @param priority The {@link Priority} of the message, {@link Priority#CONTROL} is reserved to the lib
+     * @throws IOException If the connection is closed
+     */
+    public void sendMessage(String message, Priority priority) throws IOException {
+        if(outbound.isClosed())
+            throw new IOException("Connection closed");
+        send(message, priority);
+    }
+
+    /**
+     * Send a message to the client without waiting for it to be written. It can be called from any thread.<br>
+     * If the client has a session, a message whose writing failed may still be delivered when the session is resumed.
+     * @param message The {@link String} message
+     * @param priority The {@link Priority} of the message, {@link Priority#CONTROL} is reserved to the lib
+     * @return A {@link CompletableFuture} completed when the message is written, or exceptionally with the {@link IOException} which occurred
+     */
+    public CompletableFuture<Void> send(String message, Priority priority) {
+        if(priority == Priority.CONTROL)
+            throw new IllegalArgumentException("The CONTROL priority is reserved to internal messages");
+        return outbound.send(message, priority);
     }
 
     /**
-     * Close the connection
+     * Get the metrics of one of the outbound queue's lanes
+     * @param priority The {@link Priority} of the lane
+     * @return The {@link QueueMetrics} of the lane
+     */
+    public QueueMetrics getOutboundMetrics(Priority priority) {
+        return outbound.getMetrics(priority);
+    }
+
+    /**
+     * Close the connection. The socket is closed even if the buffered messages cannot be flushed.
      * @throws IOException
      */
-    public void close() throws IOException {
-        output.close();
+    public synchronized void close() throws IOException {
+        // Flushing fails on a broken connection, which is the usual reason to close it
+        try {
+            output.close();
+        } catch (IOException ignored) {}
         socket.close();
     }
 
     /**
      * Properly kick the client from the server. It <strong>MUST NOT</strong> be used, use {@link Server#kick(ServerSideClient)} instead.
+     * @return A {@link CompletableFuture} completed when the disconnect notice is written and the connection closed,
+     *         or exceptionally with the {@link IOException} which prevented the notice from being written
      * @throws IOException
      */
-    protected void kick() throws IOException {
-        output.println(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.DISCONNECT_MESSAGE);
-        output.flush();
-        close();
+    protected CompletableFuture<Void> kick() throws IOException {
+        synchronized(this) {
+            // There is no connection to send the notice to
+            if(suspended) {
+                outbound.close(null);
+                close();
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        return outbound.close(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.DISCONNECT_MESSAGE);
     }
 
     /**
      * Send ping message to the client. It <strong>MUST NOT</strong> be used, use {@link Server#getPing(ServerSideClient)} instead.
+     * @return A {@link CompletableFuture} completed when the ping message is written, or exceptionally if it could not be
+     */
+    protected CompletableFuture<Void> ping() {
+        return outbound.send(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.PING_MESSAGE, Priority.CONTROL);
+    }
+
+    /**
+     * Wait for every queued message to be written. It <strong>MUST NOT</strong> be used, it is called by {@link Server#drain(long)}.
+     * @param timeout The maximum time to wait in millisecond
+     * @return A boolean, <code>true</code> if every message has been written, <code>false</code> if the timeout was reached
+     */
+    boolean awaitOutbound(long timeout) {
+        return outbound.awaitEmpty(timeout);
+    }
+
+    /**
+     * Specify the capture the messages sent to this client are recorded in. It <strong>MUST NOT</strong> be used, use {@link Server#setTrafficCapture(TrafficCapture)} instead.
+     * @param trafficCapture The {@link TrafficCapture}, <code>null</code> to stop recording
+     */
+    void setTrafficCapture(TrafficCapture trafficCapture) {
+        this.trafficCapture = trafficCapture;
+    }
+
+    /**
+     * Store the ping waiting for the client's answer
+     * @param ping The {@link Ping}, <code>null</code> to forget the current one
+     */
+    void setPendingPing(Ping ping) {
+        this.pendingPing = ping;
+    }
+
+    /**
+     * Forget the ping waiting for the client's answer if it is the passed one
+     * @param ping The {@link Ping} to forget
+     */
+    void clearPendingPing(Ping ping) {
+        if(pendingPing == ping)
+            pendingPing = null;
+    }
+
+    /**
+     * Get the ping waiting for the client's answer and forget it
+     * @return The {@link Ping}, <code>null</code> if no ping is waiting
+     */
+    Ping takePendingPing() {
+        Ping ping = pendingPing;
+        pendingPing = null;
+        return ping;
+    }
+
+    /**
+     * Get the token the client must give to resume its session
+     * @return The {@link String} token, <code>null</code> if the client has no session
+     */
+    synchronized String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Open a session for this client and send its token to the client
+     * @param sessionToken The {@link String} token identifying the session
+     * @param replayBufferSize The maximum amount of messages kept to be replayed on resume
+     */
+    synchronized void startSession(String sessionToken, int replayBufferSize) {
+        this.sessionToken = sessionToken;
+        this.replayBuffer = new ReplayBuffer(replayBufferSize);
+        outbound.send(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.SESSION_MESSAGE + " " + sessionToken, Priority.CONTROL);
+    }
+
+    /**
+     * Mark the connection as lost, unless the client already resumed its session on another connection.
+     * Messages sent from now on stay queued until the session is resumed, without exceeding the replay buffer size.
+     * @param lostSocket The {@link Socket} which has been lost
+     * @return A boolean, <code>true</code> if suspended, <code>false</code> if the lost socket is not the current one
+     */
+    synchronized boolean suspendIfCurrent(Socket lostSocket) {
+        if(socket != lostSocket)
+            return false;
+        this.suspended = true;
+        // The messages waiting for the resume are bounded like the replayed ones
+        outbound.pause(replayBuffer.getCapacity());
+        try {
+            close();
+        } catch (IOException ignored) {}
+        return true;
+    }
+
+    /**
+     * Mark the session as timed out, unless the client resumed it on another connection meanwhile
+     * @param lostSocket The {@link Socket} whose loss suspended the session
+     * @return A boolean, <code>true</code> if the session expired, <code>false</code> if it has been resumed
+     */
+    synchronized boolean expireIfSuspended(Socket lostSocket) {
+        if(!suspended || socket != lostSocket)
+            return false;
+        this.expired = true;
+        return true;
+    }
+
+    /**
+     * Attach a new connection to this client and send it the messages it missed
+     * @param socket The new {@link Socket} of the client
+     * @param lastSequence The sequence number of the last message received by the client
+     * @return A boolean, <code>true</code> if resumed, <code>false</code> if the session expired or the client was kicked meanwhile
+     * @throws IOException
+     */
+    boolean resume(Socket socket, long lastSequence) throws IOException {
+        boolean pausedForResume;
+        synchronized(this) {
+            if(expired || outbound.isClosed())
+                return false;
+            // The previous connection may not be detected as lost yet, stop writing to it so no message is written
+            // to either connection while they are swapped
+            pausedForResume = !suspended;
+            if(pausedForResume)
+                outbound.setPaused(true);
+            // Closing it also unblocks a writer stuck on a half-open connection
+            if(!this.socket.isClosed())
+                close();
+        }
+        // The writer may be closing the connection, which needs this client's lock
+        outbound.awaitWriter();
+        synchronized(this) {
+            if(expired || outbound.isClosed()) {
+                // Let the disconnect notice of a kick go out
+                if(pausedForResume && !suspended)
+                    outbound.setPaused(false);
+                return false;
+            }
+            this.socket = socket;
+            this.output = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            this.suspended = false;
+            boolean complete = replayBuffer.isAvailableSince(lastSequence) && outbound.getPausedDrops() == 0;
+            List<String> missedMessages = replayBuffer.getSince(lastSequence);
+            // Replayed messages go through the control lane so they are written before the queued messages
+            // and are not added to the replay buffer again
+            outbound.send(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.RESUMED_MESSAGE + " " + complete, Priority.CONTROL);
+            missedMessages.forEach(message -> outbound.send(message, Priority.CONTROL));
+            outbound.setPaused(false);
+            return true;
+        }
+    }
+
+    /**
+     * Write a message to the connection. It is only called by the thread currently writing the outbound queue.
+     * @param message The {@link String} message
+     * @param priority The {@link Priority} of the message
      * @throws IOException
      */
-    protected void ping() throws IOException {
-        output.println(Server.INTERNAL_MESSAGE_PREFIX + " " + Server.PING_MESSAGE);
-        output.flush();
+    private void writeOutput(String message, Priority priority) throws IOException {
+        // Internal messages are neither captured nor replayed
+        if(priority != Priority.CONTROL) {
+            TrafficCapture capture = trafficCapture;
+            if(capture != null)
+                capture.recordOutbound(id, message);
+            ReplayBuffer buffer = replayBuffer;
+            if(buffer != null)
+                buffer.add(message);
+        }
+        BufferedWriter currentOutput = output;
+        currentOutput.write(message);
+        currentOutput.newLine();
     }
 }